@@ -0,0 +1,126 @@
+package store.online.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import store.online.db.DBTableMap;
+import store.online.db.DBTableMap.Options;
+import store.online.db.DBTableMap.Probing;
+import store.online.db.FixedSizeSerializer.*;
+import store.online.db.IntKeyDBTableMap;
+
+/**
+ * Steady-state {@link DBTableMap} operations on a pre-filled table, across
+ * table sizes, fill levels (entries / capacity, which drives probe length),
+ * key distributions, value widths, hit/miss ratios and probing strategies.
+ * Keys use the identity hash, as the products table does; {@code getInt} and
+ * {@code containsInt} are the unboxed lookups of {@link IntKeyDBTableMap}.
+ * <p>
+ * Larger runs: {@code -p size=10000000 -p valueWidth=8}.
+ * </p>
+ *
+ * @author Alfredo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DBTableMapBenchmark {
+
+  @Param({ "1000", "100000", "1000000" })
+  int size;
+
+  /** Entries / capacity once filled; the table rehashes above 0.75. */
+  @Param({ "0.25", "0.5", "0.7" })
+  double fill;
+
+  @Param({ "sequential", "random", "strided" })
+  String distribution;
+
+  @Param({ "8", "112" })
+  int valueWidth;
+
+  /** Fraction of lookups that find their key. */
+  @Param({ "1.0", "0.5", "0.0" })
+  double hitRatio;
+
+  @Param({ "LINEAR", "ROBIN_HOOD" })
+  Probing probing;
+
+  private Path file;
+  private IntKeyDBTableMap<String> table;
+  private int[] keys;
+  private int[] lookups;
+  private int mask;
+  private int next;
+  private String value;
+
+  @Setup
+  public void setup() throws IOException {
+    file = Files.createTempFile("dbtablemap-bench", ".mmap");
+    Files.delete(file);
+    int capacity = (int) Math.ceil(size / fill);
+    table = new IntKeyDBTableMap<>(file, capacity, new StringSerializer(valueWidth), k -> k,
+        Options.DEFAULTS.withProbing(probing));
+
+    value = "v".repeat(valueWidth / 2);
+    keys = Keys.distinct(distribution, size, 42);
+    for (int k : keys)
+      table.put(k, value);
+
+    lookups = Keys.lookups(keys, hitRatio, 1 << 16, 7);
+    mask = Keys.mask(lookups);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    table.close();
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public String get() {
+    return table.get(lookups[next++ & mask]);
+  }
+
+  @Benchmark
+  public boolean containsKey() {
+    return table.containsKey(lookups[next++ & mask]);
+  }
+
+  @Benchmark
+  public String getInt() {
+    return table.getInt(lookups[next++ & mask]);
+  }
+
+  @Benchmark
+  public boolean containsInt() {
+    return table.containsInt(lookups[next++ & mask]);
+  }
+
+  /**
+   * Overwrite of an existing key (no growth).
+   */
+  @Benchmark
+  public void putExisting() {
+    table.put(keys[next++ % keys.length], value);
+  }
+
+  /**
+   * Remove followed by re-insert of the same key, which keeps the entry count
+   * steady while exercising tombstone reuse (linear) or backward shifts (Robin
+   * Hood).
+   */
+  @Benchmark
+  public void removeThenPut() {
+    int k = keys[next++ % keys.length];
+    table.remove(k);
+    table.put(k, value);
+  }
+}
@@ -0,0 +1,80 @@
+package store.online.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import store.online.db.DiskArray;
+import store.online.db.FixedSizeSerializer.*;
+
+/**
+ * Random-access {@link DiskArray#get} and {@link DiskArray#set} across array
+ * sizes, element widths and mapping backends.
+ * <p>
+ * Larger runs: {@code -p size=10000000 -p width=16}. Files past 2 GB need the
+ * segmented mapping.
+ * </p>
+ *
+ * @author Alfredo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiskArrayBenchmark {
+
+  @Param({ "1000", "100000", "1000000" })
+  int size;
+
+  /** Element width in bytes. */
+  @Param({ "16", "128", "376" })
+  int width;
+
+  @Param({ "MAPPED_BUFFER", "MEMORY_SEGMENT" })
+  DiskArray.Backend backend;
+
+  private Path file;
+  private DiskArray<Void, String> array;
+  private int[] slots;
+  private int mask;
+  private int next;
+  private String value;
+
+  @Setup
+  public void setup() throws IOException {
+    file = Files.createTempFile("diskarray-bench", ".mmap");
+    Files.delete(file);
+    array = new DiskArray<>(file, size, null, new StringSerializer(width), backend);
+    value = "x".repeat(width / 2);
+    for (int i = 0; i < size; i++)
+      array.set(i, value);
+
+    Random rnd = new Random(42);
+    slots = new int[1 << 16];
+    for (int i = 0; i < slots.length; i++)
+      slots[i] = rnd.nextInt(size);
+    mask = slots.length - 1;
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    array.close();
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public String get() {
+    return array.get(slots[next++ & mask]);
+  }
+
+  @Benchmark
+  public String set() {
+    return array.set(slots[next++ & mask], value);
+  }
+}
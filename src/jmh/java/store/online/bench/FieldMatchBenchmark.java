@@ -0,0 +1,75 @@
+package store.online.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import store.online.db.FieldMatch;
+import store.online.db.FixedSizeSerializer.*;
+import store.online.db.IntKeyDBTableMap;
+import store.online.utils.list.List;
+
+/**
+ * Full-table substring filter on a 64-byte name column: {@link FieldMatch} on
+ * the stored bytes against decoding every name and searching the String, as
+ * name searches did before.
+ *
+ * @author Alfredo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldMatchBenchmark {
+
+  private static final int WIDTH = 64;
+
+  @Param({ "100000" })
+  int size;
+
+  /** {@code words} names are ASCII; {@code accented} ones are not. */
+  @Param({ "words", "accented" })
+  String names;
+
+  @Param({ "ke" })
+  String needle;
+
+  private Path file;
+  private IntKeyDBTableMap<String> table;
+  private final StringSerializer codec = new StringSerializer(WIDTH);
+
+  @Setup
+  public void setup() throws IOException {
+    file = Files.createTempFile("fieldmatch-bench", ".mmap");
+    Files.delete(file);
+    table = new IntKeyDBTableMap<>(file, size * 2, codec, k -> k);
+    String[] values = Keys.strings(names, size, 42);
+    for (int i = 0; i < size; i++)
+      table.put(i, values[i]);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    table.close();
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public List<String> bytes() {
+    return table.scanValues(FieldMatch.containsIgnoreCase(0, WIDTH, needle));
+  }
+
+  @Benchmark
+  public List<String> decoded() {
+    String n = needle.toLowerCase();
+    return table.scanValues((buf, pos) -> {
+      String v = codec.read(buf, pos);
+      return v.toLowerCase().contains(n) ? v : null;
+    });
+  }
+}
@@ -0,0 +1,111 @@
+package store.online.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import store.online.db.DBTableMap;
+import store.online.db.DBTableMap.EntrySerializer;
+import store.online.db.DBTableMap.ProbeStats;
+import store.online.db.FixedSizeSerializer.*;
+import store.online.db.HashFunction;
+import store.online.db.Hashes;
+
+/**
+ * {@link Hashes} against the hashes the tables use today (identity for ints,
+ * {@link String#hashCode()} for strings): cost of one hash, and lookups in a
+ * half-full table built with it. Each trial prints the probe lengths of its
+ * table ({@code # probes ...}), which is where a weak hash shows.
+ * <p>
+ * Probe report only: {@code HashFunctionBenchmark.get -wi 0 -i 1}.
+ * </p>
+ *
+ * @author Alfredo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashFunctionBenchmark {
+
+  /** {@code jdk}: identity / String.hashCode; {@code murmur}: {@link Hashes}. */
+  @Param({ "jdk", "murmur" })
+  String function;
+
+  /** Int distributions of {@link Keys#distinct}, string ones of {@link Keys#strings}. */
+  @Param({ "sequential", "strided", "random", "usernames", "words", "accented" })
+  String keys;
+
+  @Param({ "100000" })
+  int size;
+
+  private Path file;
+  private boolean ints;
+  private int[] intKeys;
+  private String[] stringKeys;
+  private HashFunction<Integer> intHash;
+  private HashFunction<String> stringHash;
+  private DBTableMap<Integer, Integer> intTable;
+  private DBTableMap<String, Integer> stringTable;
+  private int next;
+
+  @Setup
+  public void setup() throws IOException {
+    boolean murmur = function.equals("murmur");
+    file = Files.createTempFile("hash-bench", ".mmap");
+    Files.delete(file);
+    // Power of two at least twice the keys: half full, never rehashed
+    int capacity = Integer.highestOneBit(size) * 4;
+    ProbeStats probes;
+
+    ints = switch (keys) {
+      case "sequential", "strided", "random" -> true;
+      default -> false;
+    };
+    if (ints) {
+      intKeys = Keys.distinct(keys, size, 42);
+      intHash = murmur ? Hashes.MURMUR_INT : k -> k;
+      intTable = new DBTableMap<>(file, capacity, new EntrySerializer<>(new IntSerializer(), new IntSerializer()),
+          intHash);
+      for (int k : intKeys)
+        intTable.put(k, k);
+      probes = intTable.probeStats();
+    } else {
+      stringKeys = Keys.strings(keys, size, 42);
+      stringHash = murmur ? Hashes.MURMUR_UTF8 : String::hashCode;
+      stringTable = new DBTableMap<>(file, capacity,
+          new EntrySerializer<>(new StringSerializer(32), new IntSerializer()), stringHash);
+      for (int i = 0; i < stringKeys.length; i++)
+        stringTable.put(stringKeys[i], i);
+      probes = stringTable.probeStats();
+    }
+    System.out.printf("%n# probes function=%s keys=%s mean=%.3f max=%d%n",
+        function, keys, probes.meanProbeLength(), probes.maxProbeLength());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    if (intTable != null)
+      intTable.close();
+    if (stringTable != null)
+      stringTable.close();
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public int hash() {
+    int i = next++ % size;
+    return ints ? intHash.hashCode(intKeys[i]) : stringHash.hashCode(stringKeys[i]);
+  }
+
+  @Benchmark
+  public Integer get() {
+    int i = next++ % size;
+    return ints ? intTable.get(intKeys[i]) : stringTable.get(stringKeys[i]);
+  }
+}
@@ -0,0 +1,107 @@
+package store.online.bench;
+
+import java.util.Random;
+
+/**
+ * Key sets shared by the storage benchmarks.
+ *
+ * @author Alfredo
+ */
+final class Keys {
+
+  private Keys() {
+  }
+
+  /**
+   * {@code n} distinct non-negative keys following a distribution:
+   * <ul>
+   * <li>{@code sequential}: 0, 1, 2, ... (product ids)</li>
+   * <li>{@code random}: uniformly spread over the int range</li>
+   * <li>{@code strided}: multiples of 1024, which pile up on few home slots
+   * under an identity hash</li>
+   * </ul>
+   */
+  static int[] distinct(String distribution, int n, long seed) {
+    int[] keys = new int[n];
+    switch (distribution) {
+      case "sequential" -> {
+        for (int i = 0; i < n; i++)
+          keys[i] = i;
+      }
+      case "strided" -> {
+        for (int i = 0; i < n; i++)
+          keys[i] = i * 1024;
+      }
+      case "random" -> {
+        // Random high bits plus the index in the low bits keeps keys distinct
+        Random rnd = new Random(seed);
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, n - 1));
+        for (int i = 0; i < n; i++)
+          keys[i] = ((rnd.nextInt() << bits) | i) & Integer.MAX_VALUE;
+      }
+      default -> throw new IllegalArgumentException("Unknown distribution " + distribution);
+    }
+    return keys;
+  }
+
+  /**
+   * {@code n} distinct string keys following a distribution:
+   * <ul>
+   * <li>{@code usernames}: a few common stems plus a counter, e.g.
+   * {@code alice1042}</li>
+   * <li>{@code words}: random lower-case words of 5 to 12 letters</li>
+   * <li>{@code accented}: product-like names with non-ASCII letters</li>
+   * </ul>
+   */
+  static String[] strings(String distribution, int n, long seed) {
+    Random rnd = new Random(seed);
+    String[] keys = new String[n];
+    switch (distribution) {
+      case "usernames" -> {
+        String[] stems = { "alice", "bob", "carol", "dave", "erin", "user" };
+        for (int i = 0; i < n; i++)
+          keys[i] = stems[i % stems.length] + i;
+      }
+      case "words" -> {
+        for (int i = 0; i < n; i++) {
+          StringBuilder sb = new StringBuilder();
+          for (int len = 5 + rnd.nextInt(8); sb.length() < len;)
+            sb.append((char) ('a' + rnd.nextInt(26)));
+          // The index keeps words distinct
+          keys[i] = sb.append(i).toString();
+        }
+      }
+      case "accented" -> {
+        String[] names = { "Café", "Jalapeño", "Crème brûlée", "Müsli", "Smørbrød", "Açaí" };
+        for (int i = 0; i < n; i++)
+          keys[i] = names[rnd.nextInt(names.length)] + " nº" + i;
+      }
+      default -> throw new IllegalArgumentException("Unknown distribution " + distribution);
+    }
+    return keys;
+  }
+
+  /**
+   * {@code count} lookups of which a {@code hitRatio} fraction are drawn from
+   * {@code present} and the rest are keys that were never inserted.
+   */
+  static int[] lookups(int[] present, double hitRatio, int count, long seed) {
+    Random rnd = new Random(seed);
+    int[] out = new int[count];
+    for (int i = 0; i < count; i++) {
+      int k = present[rnd.nextInt(present.length)];
+      // Negative keys are never inserted but still hash to live regions
+      out[i] = rnd.nextDouble() < hitRatio ? k : -1 - k;
+    }
+    return out;
+  }
+
+  /**
+   * Power-of-two mask for cycling through a lookup array.
+   */
+  static int mask(int[] lookups) {
+    if (Integer.bitCount(lookups.length) != 1)
+      throw new IllegalArgumentException("Lookup count must be a power of two");
+    return lookups.length - 1;
+  }
+}
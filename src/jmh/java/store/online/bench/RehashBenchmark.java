@@ -0,0 +1,71 @@
+package store.online.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import store.online.db.DBTableMap;
+import store.online.db.DBTableMap.EntrySerializer;
+import store.online.db.DBTableMap.Options;
+import store.online.db.DBTableMap.RehashMode;
+import store.online.db.FixedSizeSerializer.*;
+
+/**
+ * Latency of the single insert that pushes a {@link DBTableMap} past its load
+ * factor and makes it grow. Every invocation starts from a freshly filled
+ * table sitting right at the threshold.
+ *
+ * @author Alfredo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RehashBenchmark {
+
+  /** Capacity before growing; the table holds 0.75 * capacity entries. */
+  @Param({ "1024", "65536", "1048576" })
+  int capacity;
+
+  @Param({ "8", "112" })
+  int valueWidth;
+
+  /** INCREMENTAL only pays for opening the new file and the first batch. */
+  @Param({ "STOP_THE_WORLD", "INCREMENTAL" })
+  RehashMode mode;
+
+  private Path file;
+  private DBTableMap<Integer, String> table;
+  private int threshold;
+  private String value;
+
+  @Setup(Level.Invocation)
+  public void fill() throws IOException {
+    file = Files.createTempFile("rehash-bench", ".mmap");
+    Files.delete(file);
+    table = new DBTableMap<>(file, capacity,
+        new EntrySerializer<>(new IntSerializer(), new StringSerializer(valueWidth)), k -> k,
+        Options.DEFAULTS.withRehashMode(mode));
+    value = "v".repeat(valueWidth / 2);
+    threshold = (int) (0.75 * capacity);
+    for (int k = 0; k < threshold; k++)
+      table.put(k, value);
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() throws IOException {
+    table.close();
+    Files.deleteIfExists(file);
+    Files.deleteIfExists(Path.of(file + ".next"));
+  }
+
+  @Benchmark
+  public void insertTriggeringRehash() {
+    table.put(threshold, value);
+  }
+}
@@ -0,0 +1,79 @@
+package store.online.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import store.online.db.FieldMatch;
+import store.online.db.FixedSizeSerializer.*;
+import store.online.db.IntKeyDBTableMap;
+import store.online.utils.list.List;
+
+/**
+ * Full-table scans on one thread against {@link IntKeyDBTableMap#parallelScanValues}
+ * chunks on the common fork-join pool: decoding every value, and a substring
+ * filter that decodes only matches. The speedup follows the pool's
+ * parallelism ({@code -Djava.util.concurrent.ForkJoinPool.common.parallelism}).
+ *
+ * @author Alfredo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScanBenchmark {
+
+  private static final int WIDTH = 64;
+
+  @Param({ "1000000" })
+  int size;
+
+  private Path file;
+  private IntKeyDBTableMap<String> table;
+  private FieldMatch match;
+
+  @Setup
+  public void setup() throws IOException {
+    file = Files.createTempFile("scan-bench", ".mmap");
+    Files.delete(file);
+    table = new IntKeyDBTableMap<>(file, size * 2, new StringSerializer(WIDTH), k -> k);
+    String[] values = Keys.strings("words", size, 42);
+    table.batch(b -> {
+      for (int i = 0; i < size; i++)
+        b.put(i, values[i]);
+    });
+    match = FieldMatch.containsIgnoreCase(0, WIDTH, "ke");
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    table.close();
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public List<String> getValues() {
+    return table.getValues();
+  }
+
+  @Benchmark
+  public List<String> parallelGetValues() {
+    return table.parallelGetValues();
+  }
+
+  @Benchmark
+  public List<String> filter() {
+    return table.scanValues(match);
+  }
+
+  @Benchmark
+  public List<String> parallelFilter() {
+    StringSerializer codec = new StringSerializer(WIDTH);
+    return table.parallelScanValues(() -> (buf, pos) -> match.test(buf, pos) ? codec.read(buf, pos) : null);
+  }
+}
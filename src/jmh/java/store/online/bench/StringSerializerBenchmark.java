@@ -0,0 +1,124 @@
+package store.online.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import store.online.db.FixedSizeSerializer.*;
+
+/**
+ * Bulk {@link StringSerializer} against the original byte-at-a-time codec, on
+ * the widths used by the products table.
+ *
+ * @author Alfredo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringSerializerBenchmark {
+
+  /**
+   * The serializer as it was before the bulk rewrite: one get/put per byte and
+   * a fresh array per call.
+   */
+  static final class ByteLoopStringSerializer implements FixedElementSerializer<String> {
+    private final int width;
+
+    ByteLoopStringSerializer(int width) {
+      this.width = width;
+    }
+
+    public int fixedSize() {
+      return width;
+    }
+
+    public void write(ByteBuffer buf, int pos, String s) {
+      byte[] b = s.getBytes(StandardCharsets.UTF_8);
+      int n = Math.min(b.length, width);
+      for (int i = 0; i < n; i++)
+        buf.put(pos + i, b[i]);
+      for (int i = n; i < width; i++)
+        buf.put(pos + i, (byte) 0);
+    }
+
+    public String read(ByteBuffer buf, int pos) {
+      byte[] b = new byte[width];
+      for (int i = 0; i < width; i++)
+        b[i] = buf.get(pos + i);
+      int n = 0;
+      while (n < width && b[n] != 0)
+        n++;
+      return new String(b, 0, n, StandardCharsets.UTF_8);
+    }
+  }
+
+  @Param({ "8", "32", "64", "255" })
+  int width;
+
+  @Param({ "ascii", "utf8" })
+  String content;
+
+  private Path file;
+  private FileChannel ch;
+  private MappedByteBuffer buf;
+  private String value;
+  private StringSerializer bulk;
+  private ByteLoopStringSerializer byteLoop;
+
+  @Setup
+  public void setup() throws IOException {
+    file = Files.createTempFile("string-bench", ".mmap");
+    ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, 4096);
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+
+    // Fill about three quarters of the column, like a typical product name
+    String unit = content.equals("ascii") ? "Wireless Headphones " : "Café crème brûlée ";
+    String v = unit.repeat(width / unit.length() + 1);
+    while (v.getBytes(StandardCharsets.UTF_8).length > width * 3 / 4)
+      v = v.substring(0, v.length() - 1);
+    value = v;
+
+    bulk = new StringSerializer(width);
+    byteLoop = new ByteLoopStringSerializer(width);
+    bulk.write(buf, 0, value);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    ch.close();
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public String readBulk() {
+    return bulk.read(buf, 0);
+  }
+
+  @Benchmark
+  public String readByteLoop() {
+    return byteLoop.read(buf, 0);
+  }
+
+  @Benchmark
+  public void writeBulk() {
+    bulk.write(buf, 512, value);
+  }
+
+  @Benchmark
+  public void writeByteLoop() {
+    byteLoop.write(buf, 512, value);
+  }
+}
@@ -0,0 +1,397 @@
+/*
+ * Offline products table builder.
+ */
+package store.online;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import store.online.db.DBTableMap;
+import store.online.db.DBTableMap.Durability;
+import store.online.db.DBTableMap.RehashMode;
+import store.online.entities.Schema.Product;
+import store.online.repository.ProductsRepository;
+import store.online.utils.list.ArrayList;
+import store.online.utils.list.List;
+
+/**
+ * Builds {@code products.db} straight from a product dump, to bootstrap a node
+ * without replaying the REST API.
+ * <p>
+ * The dump is either CSV with a header row (columns {@code id}, {@code name},
+ * {@code category}, {@code price}, {@code currency} and {@code image}, in any
+ * order; {@code id} and the last two are optional) or newline-delimited JSON as
+ * served by {@code GET /api/products/stream}. Rows either all carry an id or
+ * none does, in which case ids are handed out in file order as the API would.
+ * Given ids must stay below {@value #ID_SPREAD} times the row count (or
+ * {@value #MIN_ID_BOUND}, if that is more): the id space is walked by paging and
+ * sized by the category index, so a few huge ids would cost as much as a huge
+ * catalog.
+ * </p>
+ * <p>
+ * The rows are counted first so the table is created at its final size: ids
+ * are dense, so every entry is then written at its home slot in one sequential
+ * pass, under a single batch with one header write, and forced once at the end.
+ * The category and name indexes are built by the application on first start.
+ * </p>
+ * <p>
+ * Usage, from the packaged jar:
+ * {@code java -cp app.jar -Dloader.main=store.online.BulkLoader org.springframework.boot.loader.launch.PropertiesLauncher <dump.csv|dump.ndjson> [table]}
+ * </p>
+ *
+ * @author Alfredo
+ */
+public final class BulkLoader {
+
+	private static final Path DEFAULT_TABLE = Path.of("data/products.db");
+	private static final int ID_SPREAD = 4;
+	private static final int MIN_ID_BOUND = 1 << 16;
+	private static final String USAGE = "Usage: BulkLoader <dump.csv|dump.ndjson> [table, default " + DEFAULT_TABLE
+			+ "]";
+
+	/**
+	 * Outcome of a load.
+	 *
+	 * @param rows  products written
+	 * @param nanos wall time, counting and forcing included
+	 */
+	public static final record Result(int rows, long nanos) {
+
+		public double rowsPerSecond() {
+			return nanos == 0 ? 0 : rows * 1e9 / nanos;
+		}
+	}
+
+	private BulkLoader() {
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		Path dump = Path.of(args[0]);
+		Path table = args.length > 1 ? Path.of(args[1]) : DEFAULT_TABLE;
+		try {
+			Result r = load(dump, table);
+			System.out.printf(Locale.ROOT, "Loaded %d products into %s in %.2f s (%.0f rows/s)%n",
+					r.rows(), table, r.nanos() / 1e9, r.rowsPerSecond());
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Bulk load failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Creates {@code table} holding every product of {@code dump}. Nothing is
+	 * left behind if the dump turns out to be malformed.
+	 *
+	 * @param dump  {@code .csv}, {@code .ndjson} or {@code .jsonl} file
+	 * @param table table file to create; neither it nor any of its companion
+	 *              files (log, rehash target, indexes) may exist yet
+	 * @return rows written and time taken
+	 * @throws IOException              if reading the dump or writing the table
+	 *                                  fails
+	 * @throws IllegalArgumentException if the table or a companion file exists,
+	 *                                  or a row is invalid
+	 */
+	public static Result load(Path dump, Path table) throws IOException {
+		boolean csv = isCsv(dump);
+		if (Files.exists(table))
+			throw new IllegalArgumentException(table + " already exists");
+		// Left over from an earlier table, they would be replayed against (or
+		// taken as indexes of) the new one when it is opened
+		Path leftover = companionFile(table);
+		if (leftover != null)
+			throw new IllegalArgumentException(leftover + " is left over from an earlier table; remove it first");
+
+		long start = System.nanoTime();
+		int rows = countRows(dump, csv);
+		// No log: a half-built table is deleted rather than recovered
+		var options = ProductsRepository.TABLE_OPTIONS.withRehashMode(RehashMode.STOP_THE_WORLD)
+				.withDurability(Durability.NONE);
+		try (var db = ProductsRepository.openTable(table, 1, options)) {
+			db.reserve(rows);
+			fill(db, dump, csv, idBound(rows));
+			db.checkpoint();
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(table);
+			throw e;
+		}
+		return new Result(rows, System.nanoTime() - start);
+	}
+
+	// ---- internals ----
+
+	/**
+	 * A file that belongs to {@code table} though the table itself is gone: its
+	 * write-ahead log or rehash target ({@code products.db.*}), or an index
+	 * stored next to it ({@code products.<kind>.db} and its own files).
+	 *
+	 * @return one such file, or {@code null} if there is none
+	 */
+	private static Path companionFile(Path table) throws IOException {
+		Path dir = table.toAbsolutePath().getParent();
+		if (dir == null || !Files.isDirectory(dir))
+			return null;
+		String name = table.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		String base = dot < 0 ? name : name.substring(0, dot);
+		String ext = dot < 0 ? "" : name.substring(dot);
+		try (var files = Files.list(dir)) {
+			return files.filter(f -> {
+				String n = f.getFileName().toString();
+				if (n.startsWith(name + "."))
+					return true;
+				if (!n.startsWith(base + ".") || n.length() <= base.length() + 1)
+					return false;
+				// base.<kind><ext>, optionally followed by the index's own suffixes
+				String rest = n.substring(base.length() + 1);
+				int end = rest.indexOf(ext);
+				return end > 0 && rest.substring(0, end).indexOf('.') < 0
+						&& (end + ext.length() == rest.length() || rest.charAt(end + ext.length()) == '.');
+			}).findFirst().orElse(null);
+		}
+	}
+
+	private static boolean isCsv(Path dump) {
+		String name = dump.getFileName().toString().toLowerCase(Locale.ROOT);
+		if (name.endsWith(".csv"))
+			return true;
+		if (name.endsWith(".ndjson") || name.endsWith(".jsonl"))
+			return false;
+		throw new IllegalArgumentException("Dump must be .csv, .ndjson or .jsonl: " + dump);
+	}
+
+	/**
+	 * Non-blank lines of the dump, without the CSV header.
+	 */
+	private static int countRows(Path dump, boolean csv) throws IOException {
+		int rows = 0;
+		try (BufferedReader in = Files.newBufferedReader(dump, StandardCharsets.UTF_8)) {
+			for (String line; (line = in.readLine()) != null;)
+				if (!line.isBlank())
+					rows++;
+		}
+		return csv ? Math.max(0, rows - 1) : rows;
+	}
+
+	/**
+	 * Exclusive upper bound of the ids a dump of {@code rows} rows may give.
+	 */
+	private static int idBound(int rows) {
+		return (int) Math.min(Integer.MAX_VALUE, Math.max((long) rows * ID_SPREAD, MIN_ID_BOUND));
+	}
+
+	/**
+	 * Writes every row in one batch. Rows without an id get the next serial,
+	 * rows with one raise the serial past it so later inserts never reuse it.
+	 * Whether ids are given is settled by the first row.
+	 */
+	private static void fill(DBTableMap<Integer, Product> db, Path dump, boolean csv, int idBound)
+			throws IOException {
+		try (BufferedReader in = Files.newBufferedReader(dump, StandardCharsets.UTF_8)) {
+			Rows rows = csv ? new CsvRows(in) : new JsonRows(in);
+			db.batch(b -> {
+				try {
+					Boolean withIds = null;
+					for (Row r; (r = rows.next()) != null;) {
+						Product p = r.product(rows.line());
+						if (withIds == null)
+							withIds = r.id() != null;
+						else if (withIds != (r.id() != null))
+							throw new IllegalArgumentException(
+									"Line " + rows.line() + ": ids must be given on every row or on none");
+						if (withIds && r.id() >= idBound)
+							throw new IllegalArgumentException(
+									"Line " + rows.line() + ": id must be < " + idBound + " for a dump of this size");
+						p.id = withIds ? r.id() : b.header().serialCount();
+						if (!b.putIfAbsent(p.id, p))
+							throw new IllegalArgumentException("Line " + rows.line() + ": duplicate id " + p.id);
+						b.raiseSerial(p.id + 1);
+					}
+				} catch (IOException ioe) {
+					throw new UncheckedIOException(ioe);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * One record of the dump, as read.
+	 */
+	private static final record Row(Integer id, String name, String category, Float price, String currency,
+			String image) {
+
+		Product product(int line) {
+			if (id != null && id < 0)
+				throw invalid(line, "id must be >= 0");
+			if (name == null || name.isBlank())
+				throw invalid(line, "name is required");
+			if (price == null || price < 0)
+				throw invalid(line, "price must be >= 0");
+			if (currency == null || currency.isBlank())
+				throw invalid(line, "currency is required");
+			Product p = new Product();
+			p.name = name;
+			p.category = category;
+			p.price = price;
+			p.currency = currency;
+			p.image = image;
+			return p;
+		}
+
+		private static IllegalArgumentException invalid(int line, String why) {
+			return new IllegalArgumentException("Line " + line + ": " + why);
+		}
+	}
+
+	private interface Rows {
+		/**
+		 * @return next record, or {@code null} at the end of the dump
+		 */
+		Row next() throws IOException;
+
+		/**
+		 * @return line number of the record last returned
+		 */
+		int line();
+	}
+
+	private static final class JsonRows implements Rows {
+		private final ObjectMapper mapper = new ObjectMapper()
+				.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+		private final BufferedReader in;
+		private int line;
+
+		JsonRows(BufferedReader in) {
+			this.in = in;
+		}
+
+		@Override
+		public Row next() throws IOException {
+			for (String s; (s = in.readLine()) != null;) {
+				line++;
+				if (s.isBlank())
+					continue;
+				try {
+					return mapper.readValue(s, Row.class);
+				} catch (JsonProcessingException e) {
+					throw new IllegalArgumentException("Line " + line + ": " + e.getOriginalMessage());
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public int line() {
+			return line;
+		}
+	}
+
+	/**
+	 * RFC 4180 rows, one per line: fields may be quoted, with {@code ""} for a
+	 * quote inside a quoted field.
+	 */
+	private static final class CsvRows implements Rows {
+		private final BufferedReader in;
+		private int line;
+		private int id = -1, name = -1, category = -1, price = -1, currency = -1, image = -1;
+
+		CsvRows(BufferedReader in) throws IOException {
+			this.in = in;
+			List<String> header = nextFields();
+			if (header == null)
+				return;
+			for (int i = 0; i < header.size(); i++) {
+				switch (header.get(i).trim().toLowerCase(Locale.ROOT)) {
+				case "id" -> id = i;
+				case "name" -> name = i;
+				case "category" -> category = i;
+				case "price" -> price = i;
+				case "currency" -> currency = i;
+				case "image" -> image = i;
+				default -> throw new IllegalArgumentException("Line " + line + ": unknown column " + header.get(i));
+				}
+			}
+			if (name < 0 || price < 0 || currency < 0)
+				throw new IllegalArgumentException("Line " + line + ": name, price and currency columns are required");
+		}
+
+		@Override
+		public Row next() throws IOException {
+			List<String> f = nextFields();
+			if (f == null)
+				return null;
+			try {
+				String i = field(f, id);
+				String pr = field(f, price);
+				return new Row(i == null || i.isBlank() ? null : Integer.valueOf(i.trim()),
+						field(f, name),
+						field(f, category),
+						pr == null || pr.isBlank() ? null : Float.valueOf(pr.trim()),
+						field(f, currency),
+						field(f, image));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Line " + line + ": " + e.getMessage());
+			}
+		}
+
+		@Override
+		public int line() {
+			return line;
+		}
+
+		private static String field(List<String> fields, int column) {
+			return column >= 0 && column < fields.size() ? fields.get(column) : null;
+		}
+
+		private List<String> nextFields() throws IOException {
+			for (String s; (s = in.readLine()) != null;) {
+				line++;
+				if (!s.isBlank())
+					return split(s);
+			}
+			return null;
+		}
+
+		private List<String> split(String s) {
+			List<String> fields = new ArrayList<>();
+			StringBuilder cur = new StringBuilder();
+			boolean quoted = false;
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (quoted) {
+					if (c != '"')
+						cur.append(c);
+					else if (i + 1 < s.length() && s.charAt(i + 1) == '"')
+						cur.append(s.charAt(++i));
+					else
+						quoted = false;
+				} else if (c == '"') {
+					quoted = true;
+				} else if (c == ',') {
+					fields.add(cur.toString());
+					cur.setLength(0);
+				} else {
+					cur.append(c);
+				}
+			}
+			if (quoted)
+				throw new IllegalArgumentException("Line " + line + ": unterminated quote");
+			fields.add(cur.toString());
+			return fields;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Metrics Controller
+ */
+package store.online.controller;
+
+import java.util.Map;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import store.online.db.DBTableMap;
+import store.online.service.TableMetrics;
+
+/**
+ * Read-only health figures of the storage layer.
+ *
+ * @author Alfredo
+ */
+@RestController
+@RequestMapping("/api/metrics")
+public class MetricsController {
+
+  private final TableMetrics tableMetrics;
+
+  public MetricsController(TableMetrics tableMetrics) {
+    this.tableMetrics = tableMetrics;
+  }
+
+  /**
+   * Probe lengths, tombstones, load factor, rehash counts and time, and mapped
+   * bytes of every open table. Scans each table, at most once every few
+   * seconds however often it is called.
+   */
+  @GetMapping("/tables")
+  public ResponseEntity<Map<String, DBTableMap.Metrics>> tables() {
+    return ResponseEntity.ok(tableMetrics.all());
+  }
+}
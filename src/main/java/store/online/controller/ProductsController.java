@@ -3,12 +3,24 @@
  */
 package store.online.controller;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import store.online.entities.Schema.Product;
+import store.online.service.CatalogSnapshots;
 import store.online.service.ProductsService;
+import store.online.utils.cache.LRUCache;
+import store.online.utils.list.ArrayList;
 import store.online.utils.list.List;
 
 /**
@@ -18,24 +30,105 @@ import store.online.utils.list.List;
 @RequestMapping("/api/products")
 public class ProductsController {
 
+  /** Largest page served, whatever the client asks for. */
+  private static final int MAX_PAGE_SIZE = 500;
+  private static final int DEFAULT_PAGE_SIZE = 50;
+  /** Largest batch accepted by the bulk endpoints. */
+  private static final int MAX_BATCH_SIZE = 1000;
+
   private final ProductsService productsService;
+  private final CatalogSnapshots catalog;
+  private final ObjectMapper mapper;
 
-  public ProductsController(ProductsService productsService) {
+  public ProductsController(ProductsService productsService, CatalogSnapshots catalog, ObjectMapper mapper) {
     this.productsService = productsService;
+    this.catalog = catalog;
+    this.mapper = mapper;
   }
 
   @GetMapping
-  public ResponseEntity<List<Product>> list(
+  public ResponseEntity<?> list(
       @RequestParam(value = "category", required = false) String category,
-      @RequestParam(value = "q", required = false) String q) {
+      @RequestParam(value = "q", required = false) String q,
+      @RequestParam(value = "limit", required = false) Integer limit,
+      @RequestParam(value = "after", required = false) Integer after,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
 
+    // Paged as soon as the client asks for a page; otherwise the whole listing
+    if (limit != null || after != null) {
+      if (limit != null && limit < 1) {
+        return ResponseEntity.badRequest().body(new ErrorResponse("limit must be >= 1."));
+      }
+      if (after != null && after < -1) {
+        return ResponseEntity.badRequest().body(new ErrorResponse("after must be >= -1."));
+      }
+      int size = Math.min(limit == null ? DEFAULT_PAGE_SIZE : limit, MAX_PAGE_SIZE);
+      return ResponseEntity.ok(productsService.getPage(category, q, after == null ? -1 : after, size));
+    }
     if (q != null && !q.isBlank()) {
       return ResponseEntity.ok(productsService.searchByName(q));
     }
     if (category != null && !category.isBlank()) {
-      return ResponseEntity.ok(productsService.getProductsByCategory(category));
+      return rendered(catalog.byCategory(category), ifNoneMatch);
+    }
+    return rendered(catalog.all(), ifNoneMatch);
+  }
+
+  /**
+   * Streams a listing without building it in memory, as newline-delimited JSON
+   * ({@code format=ndjson}, the default) or as one JSON array.
+   */
+  @GetMapping("/stream")
+  public ResponseEntity<StreamingResponseBody> stream(
+      @RequestParam(value = "category", required = false) String category,
+      @RequestParam(value = "q", required = false) String q,
+      @RequestParam(value = "format", defaultValue = "ndjson") String format) {
+
+    boolean ndjson = format.equalsIgnoreCase("ndjson");
+    if (!ndjson && !format.equalsIgnoreCase("json")) {
+      // Streaming bodies bypass the message converters, so write the error by hand
+      return ResponseEntity.badRequest()
+          .contentType(MediaType.APPLICATION_JSON)
+          .body(out -> mapper.writeValue(out, new ErrorResponse("format must be ndjson or json.")));
+    }
+
+    // Let the servlet buffer decide when to send a chunk, and leave closing the
+    // response to the container
+    ObjectWriter writer = mapper.writer()
+        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+        .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    StreamingResponseBody body = out -> {
+      if (ndjson) {
+        try (SequenceWriter seq = writer.withRootValueSeparator("\n").writeValues(out)) {
+          productsService.forEachProduct(category, q, seq::write);
+        }
+        out.write('\n');
+      } else {
+        try (JsonGenerator gen = writer.createGenerator(out)) {
+          gen.writeStartArray();
+          productsService.forEachProduct(category, q, p -> writer.writeValue(gen, p));
+          gen.writeEndArray();
+        }
+      }
+    };
+    return ResponseEntity.ok()
+        .contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON)
+        .body(body);
+  }
+
+  @GetMapping("/{id}")
+  public ResponseEntity<?> get(@PathVariable int id) {
+    var p = productsService.getProduct(id);
+    if (p.isEmpty()) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND)
+          .body(new ErrorResponse("Product not found."));
     }
-    return ResponseEntity.ok(productsService.getAllProducts());
+    return ResponseEntity.ok(p.get());
+  }
+
+  @GetMapping("/cache")
+  public ResponseEntity<LRUCache.Stats> cacheStats() {
+    return ResponseEntity.ok(productsService.cacheStats());
   }
 
   @PostMapping
@@ -80,6 +173,104 @@ public class ProductsController {
     return ResponseEntity.noContent().build();
   }
 
+  /**
+   * Inserts several products with one table write. Invalid products are
+   * reported and skipped; the others are inserted.
+   */
+  @PostMapping("/batch")
+  public ResponseEntity<?> createAll(@RequestBody Product[] products) {
+    if (products == null || products.length > MAX_BATCH_SIZE) {
+      return ResponseEntity.badRequest().body(new ErrorResponse(tooLarge()));
+    }
+    BatchResult[] results = new BatchResult[products.length];
+    List<Product> valid = new ArrayList<>(products.length);
+    List<Integer> at = new ArrayList<>(products.length);
+    for (int i = 0; i < products.length; i++) {
+      var err = validateForCreate(products[i]);
+      if (err != null) {
+        results[i] = BatchResult.failed(i, null, err);
+      } else {
+        valid.add(products[i]);
+        at.add(i);
+      }
+    }
+    boolean[] ok = productsService.insertAll(valid);
+    for (int k = 0; k < ok.length; k++) {
+      results[at.get(k)] = ok[k] ? BatchResult.done(at.get(k), valid.get(k).id)
+          : BatchResult.failed(at.get(k), null, "Insert failed.");
+    }
+    return ResponseEntity.ok(results);
+  }
+
+  /**
+   * Updates several products, each identified by its {@code id}, with one
+   * table write.
+   */
+  @PutMapping("/batch")
+  public ResponseEntity<?> updateAll(@RequestBody Product[] products) {
+    if (products == null || products.length > MAX_BATCH_SIZE) {
+      return ResponseEntity.badRequest().body(new ErrorResponse(tooLarge()));
+    }
+    BatchResult[] results = new BatchResult[products.length];
+    List<Product> valid = new ArrayList<>(products.length);
+    List<Integer> at = new ArrayList<>(products.length);
+    for (int i = 0; i < products.length; i++) {
+      var err = products[i] == null ? "Body required." : validateForUpdate(products[i]);
+      if (err != null) {
+        results[i] = BatchResult.failed(i, products[i] == null ? null : products[i].id, err);
+      } else {
+        valid.add(products[i]);
+        at.add(i);
+      }
+    }
+    boolean[] ok = productsService.updateAll(valid);
+    for (int k = 0; k < ok.length; k++) {
+      int id = valid.get(k).id;
+      results[at.get(k)] = ok[k] ? BatchResult.done(at.get(k), id)
+          : BatchResult.failed(at.get(k), id, "Product not found or update failed.");
+    }
+    return ResponseEntity.ok(results);
+  }
+
+  /**
+   * Deletes several products by id with one table write.
+   */
+  @DeleteMapping("/batch")
+  public ResponseEntity<?> deleteAll(@RequestBody int[] ids) {
+    if (ids == null || ids.length > MAX_BATCH_SIZE) {
+      return ResponseEntity.badRequest().body(new ErrorResponse(tooLarge()));
+    }
+    List<Integer> all = new ArrayList<>(ids.length);
+    for (int id : ids)
+      all.add(id);
+    boolean[] ok = productsService.deleteAll(all);
+    BatchResult[] results = new BatchResult[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      results[i] = ok[i] ? BatchResult.done(i, ids[i])
+          : BatchResult.failed(i, ids[i], "Product not found or delete failed.");
+    }
+    return ResponseEntity.ok(results);
+  }
+
+  /**
+   * Outcome of one item of a bulk request.
+   *
+   * @param index position of the item in the request
+   * @param id    product id, when known
+   * @param ok    whether the item was applied
+   * @param error why it was not, or null
+   */
+  public static final record BatchResult(int index, Integer id, boolean ok, String error) {
+
+    static BatchResult done(int index, int id) {
+      return new BatchResult(index, id, true, null);
+    }
+
+    static BatchResult failed(int index, Integer id, String error) {
+      return new BatchResult(index, id, false, error);
+    }
+  }
+
   public static final class ErrorResponse {
     public String message;
 
@@ -88,6 +279,37 @@ public class ProductsController {
     }
   }
 
+  /**
+   * Serves a pre-rendered listing, or 304 if the client already has it.
+   */
+  private ResponseEntity<?> rendered(CatalogSnapshots.Rendered r, String ifNoneMatch) {
+    if (matches(ifNoneMatch, r.etag())) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(r.etag()).build();
+    }
+    return ResponseEntity.ok()
+        .eTag(r.etag())
+        .contentType(MediaType.APPLICATION_JSON)
+        .body(r.json());
+  }
+
+  private static String tooLarge() {
+    return "Body must be an array of at most " + MAX_BATCH_SIZE + " items.";
+  }
+
+  private static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null)
+      return false;
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      // Weak comparison, as If-None-Match requires
+      if (tag.startsWith("W/"))
+        tag = tag.substring(2);
+      if (tag.equals("*") || tag.equals(etag))
+        return true;
+    }
+    return false;
+  }
+
   private String validateForCreate(Product p) {
     if (p == null)
       return "Body required.";
@@ -0,0 +1,327 @@
+package store.online.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import store.online.db.DBTableMap.EntrySerializer;
+import store.online.db.FixedSizeSerializer.*;
+import store.online.utils.list.ArrayList;
+import store.online.utils.list.List;
+
+/**
+ * Persistent secondary index grouping row ids by key (e.g. category -> product
+ * ids). Every id belongs to at most one key at a time.
+ * <p>
+ * Each group is a doubly linked list threaded through a {@link DiskArray}
+ * indexed by row id, and a {@link DBTableMap} maps each key to the ends of its
+ * list. Lists are kept in ascending id order, so they can be paged by id.
+ * Removing an id is O(1); adding one is O(1) when it is the largest of its
+ * group, which holds for ids handed out by a serial counter, and otherwise walks
+ * back from the tail. Listing a key touches only the ids in that group.
+ * </p>
+ * <p>
+ * Files: {@code path} holds the key table and {@code path + ".links"} the link
+ * array.
+ * </p>
+ *
+ * @author Alfredo
+ *
+ * @param <K> key type
+ */
+public class DBIndex<K> implements Closeable {
+
+  private static final int NIL = -1;
+
+  /**
+   * Ends and length of one group's list.
+   */
+  public static final record Chain(int head, int tail, int size) {
+  }
+
+  /**
+   * Neighbours of one id inside its group's list.
+   */
+  private static final record Link(boolean linked, int prev, int next) {
+  }
+
+  public static final class ChainSerializer implements FixedElementSerializer<Chain> {
+    @Override
+    public int fixedSize() {
+      return 12;
+    }
+
+    @Override
+    public void write(ByteBuffer buf, int pos, Chain c) {
+      buf.putInt(pos, c.head());
+      buf.putInt(pos + 4, c.tail());
+      buf.putInt(pos + 8, c.size());
+    }
+
+    @Override
+    public Chain read(ByteBuffer buf, int pos) {
+      return new Chain(buf.getInt(pos), buf.getInt(pos + 4), buf.getInt(pos + 8));
+    }
+  }
+
+  private static final class LinkSerializer implements FixedElementSerializer<Link> {
+    @Override
+    public int fixedSize() {
+      // [linked : 4 bytes][prev : 4 bytes][next : 4 bytes]
+      return 12;
+    }
+
+    @Override
+    public void write(ByteBuffer buf, int pos, Link l) {
+      buf.putInt(pos, l.linked() ? 1 : 0);
+      buf.putInt(pos + 4, l.prev());
+      buf.putInt(pos + 8, l.next());
+    }
+
+    @Override
+    public Link read(ByteBuffer buf, int pos) {
+      return new Link(buf.getInt(pos) != 0, buf.getInt(pos + 4), buf.getInt(pos + 8));
+    }
+  }
+
+  private static final Link UNLINKED = new Link(false, NIL, NIL);
+
+  private final DBTableMap<K, Chain> chains;
+  private final DiskArray<Void, Link> links;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  public DBIndex(Path path,
+      int initialCapacity,
+      FixedElementSerializer<K> keyCodec,
+      HashFunction<K> hashFunction) throws IOException {
+    this.chains = new DBTableMap<>(path, initialCapacity,
+        new EntrySerializer<>(keyCodec, new ChainSerializer()), hashFunction);
+    this.links = new DiskArray<>(Path.of(path + ".links"), initialCapacity, null, new LinkSerializer());
+  }
+
+  /**
+   * Adds {@code id} to the group of {@code key}, in id order.
+   *
+   * @param key group key
+   * @param id  non-negative row id
+   * @return {@code false} if {@code id} is already indexed (under any key)
+   */
+  public boolean add(K key, int id) {
+    if (id < 0)
+      throw new IllegalArgumentException("Id must be >= 0");
+    lock.writeLock().lock();
+    try {
+      ensureCapacity(id);
+      if (links.get(id).linked())
+        return false;
+
+      Chain c = chains.get(key);
+      if (c == null) {
+        links.set(id, new Link(true, NIL, NIL));
+        chains.put(key, new Chain(id, id, 1));
+        return true;
+      }
+
+      // Walk back to the last smaller id; new ids usually go right at the tail
+      int prev = c.tail();
+      while (prev != NIL && prev > id)
+        prev = links.get(prev).prev();
+      int next = prev == NIL ? c.head() : links.get(prev).next();
+
+      if (prev != NIL) {
+        Link p = links.get(prev);
+        links.set(prev, new Link(true, p.prev(), id));
+      }
+      if (next != NIL) {
+        Link n = links.get(next);
+        links.set(next, new Link(true, id, n.next()));
+      }
+      links.set(id, new Link(true, prev, next));
+      chains.put(key, new Chain(prev == NIL ? id : c.head(), next == NIL ? id : c.tail(), c.size() + 1));
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes {@code id} from the group of {@code key}.
+   *
+   * @param key group key the id was added under
+   * @param id  row id
+   * @return {@code false} if {@code id} is not indexed under {@code key}
+   */
+  public boolean remove(K key, int id) {
+    lock.writeLock().lock();
+    try {
+      if (id < 0 || id >= links.capacity())
+        return false;
+      Link l = links.get(id);
+      Chain c = chains.get(key);
+      if (!l.linked() || c == null)
+        return false;
+      // An id with no predecessor must be the head of this very group
+      if (l.prev() == NIL && c.head() != id)
+        return false;
+
+      if (c.size() == 1) {
+        chains.remove(key);
+      } else {
+        int head = c.head(), tail = c.tail();
+        if (l.prev() != NIL) {
+          Link p = links.get(l.prev());
+          links.set(l.prev(), new Link(true, p.prev(), l.next()));
+        } else {
+          head = l.next();
+        }
+        if (l.next() != NIL) {
+          Link n = links.get(l.next());
+          links.set(l.next(), new Link(true, l.prev(), n.next()));
+        } else {
+          tail = l.prev();
+        }
+        chains.put(key, new Chain(head, tail, c.size() - 1));
+      }
+      links.set(id, UNLINKED);
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Moves {@code id} from one group to another. Equal keys are a no-op that
+   * returns {@code true} without looking at the group, so an update that keeps
+   * its key costs nothing.
+   *
+   * @return {@code false} if {@code id} was not indexed under {@code from}
+   */
+  public boolean move(K from, K to, int id) {
+    if (from.equals(to))
+      return true;
+    lock.writeLock().lock();
+    try {
+      return remove(from, id) && add(to, id);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Ids in the group of {@code key}, in ascending order. Cost is proportional
+   * to the size of the group.
+   *
+   * @param key group key
+   * @return ids (may be empty, never {@code null})
+   */
+  public List<Integer> ids(K key) {
+    lock.readLock().lock();
+    try {
+      Chain c = chains.get(key);
+      if (c == null)
+        return new ArrayList<>();
+      List<Integer> ids = new ArrayList<>(c.size());
+      for (int id = c.head(); id != NIL; id = links.get(id).next())
+        ids.add(id);
+      return ids;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * One page of the group of {@code key}: the first {@code limit} ids greater
+   * than {@code after}, ascending. The start is found from whichever end of the
+   * list looks closer, so paging deep into a group does not walk all the ids
+   * before the page.
+   *
+   * @param key   group key
+   * @param after exclusive lower bound (e.g. the last id of the previous page,
+   *              or -1 for the first page)
+   * @param limit maximum number of ids
+   * @return ids (may be empty, never {@code null})
+   */
+  public List<Integer> idsAfter(K key, int after, int limit) {
+    if (limit < 1)
+      throw new IllegalArgumentException("Limit must be at least 1");
+    lock.readLock().lock();
+    try {
+      Chain c = chains.get(key);
+      List<Integer> ids = new ArrayList<>();
+      if (c == null || c.tail() <= after)
+        return ids;
+
+      int id;
+      if ((long) after - c.head() <= (long) c.tail() - after) {
+        id = c.head();
+        while (id != NIL && id <= after)
+          id = links.get(id).next();
+      } else {
+        int prev = c.tail();
+        while (prev != NIL && prev > after)
+          prev = links.get(prev).prev();
+        id = prev == NIL ? c.head() : links.get(prev).next();
+      }
+
+      for (; id != NIL && ids.size() < limit; id = links.get(id).next())
+        ids.add(id);
+      return ids;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return whether {@code id} is indexed under {@code key}
+   */
+  public boolean contains(K key, int id) {
+    lock.readLock().lock();
+    try {
+      Chain c = chains.get(key);
+      if (c == null || id < 0 || id >= links.capacity())
+        return false;
+      for (int cur = c.head(); cur != NIL; cur = links.get(cur).next())
+        if (cur == id)
+          return true;
+      return false;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return number of ids indexed under {@code key}
+   */
+  public int size(K key) {
+    Chain c = chains.get(key);
+    return c == null ? 0 : c.size();
+  }
+
+  /**
+   * Closes both backing files.
+   *
+   * @throws IOException if closing either file fails
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      chains.close();
+    } finally {
+      links.close();
+    }
+  }
+
+  // ---- internals ----
+  private void ensureCapacity(int id) {
+    if (id < links.capacity())
+      return;
+    try {
+      links.grow(Math.max(id + 1, links.capacity() * 2));
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    }
+  }
+}
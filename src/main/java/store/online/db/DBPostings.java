@@ -0,0 +1,357 @@
+package store.online.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import store.online.db.DBTableMap.EntrySerializer;
+import store.online.db.FixedSizeSerializer.*;
+import store.online.utils.list.ArrayList;
+import store.online.utils.list.List;
+
+/**
+ * Persistent inverted index: each key maps to a posting list of row ids, and a
+ * row id may appear under many keys (e.g. every trigram of a product name).
+ * <p>
+ * Nodes live in a {@link DiskArray} pool and each key's list is chained
+ * newest-first, doubly linked, from the head stored in a {@link DBTableMap}.
+ * Every node also records its key and the next node of the same row id, and a
+ * second array indexed by row id points at the first of them, so removing the
+ * postings of a row walks only that row's own nodes (one per key it is posted
+ * under) rather than the lists they sit in. Adding a posting is O(1) and
+ * reading a list costs only its length. Callers remove the postings of rows
+ * that change or go away, so lists hold only live ids, but candidates should
+ * still be verified against the base table, which is written first.
+ * </p>
+ * <p>
+ * Unlinked nodes go on a free list and are handed out again before the pool
+ * grows, so its size follows the number of live postings.
+ * </p>
+ * <p>
+ * Files: {@code path} holds the key table, {@code path + ".nodes"} the node
+ * pool and {@code path + ".ids"} the first node of every row id.
+ * </p>
+ *
+ * @author Alfredo
+ *
+ * @param <K> key type
+ */
+public class DBPostings<K> implements Closeable {
+
+  private static final int NIL = -1;
+
+  /**
+   * First node and length of one key's posting list.
+   */
+  public static final record Chain(int head, int size) {
+  }
+
+  /**
+   * Nodes ever handed out and the first free one.
+   */
+  private static final record Pool(int used, int free) {
+  }
+
+  /**
+   * One posting: a row id, its neighbours in the key's list (newer and older),
+   * and the next node of the same row id. A free node keeps the next free one in
+   * {@code next}.
+   */
+  private static final record Node<K>(K key, int id, int prev, int next, int sibling) {
+  }
+
+  public static final class ChainSerializer implements FixedElementSerializer<Chain> {
+    @Override
+    public int fixedSize() {
+      return 8;
+    }
+
+    @Override
+    public void write(ByteBuffer buf, int pos, Chain c) {
+      buf.putInt(pos, c.head());
+      buf.putInt(pos + 4, c.size());
+    }
+
+    @Override
+    public Chain read(ByteBuffer buf, int pos) {
+      return new Chain(buf.getInt(pos), buf.getInt(pos + 4));
+    }
+  }
+
+  private static final class PoolSerializer implements FixedElementSerializer<Pool> {
+    @Override
+    public int fixedSize() {
+      return 8;
+    }
+
+    @Override
+    public void write(ByteBuffer buf, int pos, Pool p) {
+      buf.putInt(pos, p.used());
+      // Stored off by one, so the zeroed header of a new pool has no free node
+      buf.putInt(pos + 4, p.free() + 1);
+    }
+
+    @Override
+    public Pool read(ByteBuffer buf, int pos) {
+      return new Pool(buf.getInt(pos), buf.getInt(pos + 4) - 1);
+    }
+  }
+
+  private static final class NodeSerializer<K> implements FixedElementSerializer<Node<K>> {
+    private final FixedElementSerializer<K> keyCodec;
+
+    NodeSerializer(FixedElementSerializer<K> keyCodec) {
+      this.keyCodec = keyCodec;
+    }
+
+    @Override
+    public int fixedSize() {
+      // [id : 4 bytes][prev : 4 bytes][next : 4 bytes][sibling : 4 bytes][key]
+      return 16 + keyCodec.fixedSize();
+    }
+
+    @Override
+    public void write(ByteBuffer buf, int pos, Node<K> n) {
+      buf.putInt(pos, n.id());
+      buf.putInt(pos + 4, n.prev());
+      buf.putInt(pos + 8, n.next());
+      buf.putInt(pos + 12, n.sibling());
+      if (n.key() != null)
+        keyCodec.write(buf, pos + 16, n.key());
+    }
+
+    @Override
+    public Node<K> read(ByteBuffer buf, int pos) {
+      return new Node<>(keyCodec.read(buf, pos + 16), buf.getInt(pos), buf.getInt(pos + 4), buf.getInt(pos + 8),
+          buf.getInt(pos + 12));
+    }
+  }
+
+  private final DBTableMap<K, Chain> chains;
+  private final DiskArray<Pool, Node<K>> nodes;
+  /** First node of each row id, plus one (0 for none). */
+  private final DiskArray<Void, Integer> firsts;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  public DBPostings(Path path,
+      int initialCapacity,
+      FixedElementSerializer<K> keyCodec,
+      HashFunction<K> hashFunction) throws IOException {
+    this.chains = new DBTableMap<>(path, initialCapacity,
+        new EntrySerializer<>(keyCodec, new ChainSerializer()), hashFunction);
+    this.nodes = new DiskArray<>(Path.of(path + ".nodes"), initialCapacity, new PoolSerializer(),
+        new NodeSerializer<>(keyCodec));
+    this.firsts = new DiskArray<>(Path.of(path + ".ids"), initialCapacity, null, new IntSerializer());
+  }
+
+  /**
+   * Appends {@code id} to the posting list of {@code key}.
+   *
+   * @param key posting key
+   * @param id  non-negative row id
+   */
+  public void add(K key, int id) {
+    if (id < 0)
+      throw new IllegalArgumentException("Id must be >= 0");
+    lock.writeLock().lock();
+    try {
+      ensureCapacity(id);
+      int n = allocate();
+      Chain c = chains.get(key);
+      int head = c == null ? NIL : c.head();
+      if (head != NIL) {
+        Node<K> h = nodes.get(head);
+        nodes.set(head, new Node<>(h.key(), h.id(), n, h.next(), h.sibling()));
+      }
+      nodes.set(n, new Node<>(key, id, NIL, head, firsts.get(id) - 1));
+      firsts.set(id, n + 1);
+      chains.put(key, new Chain(n, c == null ? 1 : c.size() + 1));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes every posting of {@code id} under {@code key}. Cost is proportional
+   * to the number of keys {@code id} is posted under, not to the list length.
+   *
+   * @param key posting key
+   * @param id  row id
+   * @return {@code false} if {@code id} was not posted under {@code key}
+   */
+  public boolean remove(K key, int id) {
+    lock.writeLock().lock();
+    try {
+      if (id < 0 || id >= firsts.capacity())
+        return false;
+      Chain c = chains.get(key);
+      if (c == null)
+        return false;
+      int head = c.head();
+      int removed = 0;
+      int before = NIL; // previous node of the same id still linked
+      for (int n = firsts.get(id) - 1; n != NIL;) {
+        Node<K> node = nodes.get(n);
+        int sibling = node.sibling();
+        if (!key.equals(node.key())) {
+          before = n;
+        } else {
+          removed++;
+          // Out of the key's list...
+          if (node.prev() == NIL) {
+            head = node.next();
+          } else {
+            Node<K> p = nodes.get(node.prev());
+            nodes.set(node.prev(), new Node<>(p.key(), p.id(), p.prev(), node.next(), p.sibling()));
+          }
+          if (node.next() != NIL) {
+            Node<K> x = nodes.get(node.next());
+            nodes.set(node.next(), new Node<>(x.key(), x.id(), node.prev(), x.next(), x.sibling()));
+          }
+          // ...out of the id's nodes...
+          if (before == NIL) {
+            firsts.set(id, sibling + 1);
+          } else {
+            Node<K> b = nodes.get(before);
+            nodes.set(before, new Node<>(b.key(), b.id(), b.prev(), b.next(), sibling));
+          }
+          // ...and onto the free list
+          release(n);
+        }
+        n = sibling;
+      }
+      if (removed == 0)
+        return false;
+      if (head == NIL)
+        chains.remove(key);
+      else
+        chains.put(key, new Chain(head, c.size() - removed));
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Row ids posted under {@code key}, newest first. May contain ids whose row
+   * was written after the lookup began; cost is proportional to the list
+   * length.
+   *
+   * @param key posting key
+   * @return ids (may be empty, never {@code null})
+   */
+  public List<Integer> ids(K key) {
+    lock.readLock().lock();
+    try {
+      Chain c = chains.get(key);
+      if (c == null)
+        return new ArrayList<>();
+      List<Integer> ids = new ArrayList<>(c.size());
+      for (int n = c.head(); n != NIL;) {
+        Node<K> node = nodes.get(n);
+        ids.add(node.id());
+        n = node.next();
+      }
+      return ids;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return length of the posting list of {@code key} (0 if none)
+   */
+  public int size(K key) {
+    Chain c = chains.get(key);
+    return c == null ? 0 : c.size();
+  }
+
+  /**
+   * @return nodes in the pool, live or free; it only grows when no free node is
+   *         left
+   */
+  public int poolSize() {
+    lock.readLock().lock();
+    try {
+      return nodes.header().used();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Drops every posting.
+   */
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      chains.clear();
+      nodes.setHeader(new Pool(0, NIL));
+      for (int id = 0; id < firsts.capacity(); id++)
+        firsts.set(id, 0);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Closes the backing files.
+   *
+   * @throws IOException if closing any of them fails
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      chains.close();
+    } finally {
+      try {
+        nodes.close();
+      } finally {
+        firsts.close();
+      }
+    }
+  }
+
+  // ---- internals ----
+
+  /**
+   * Takes a node off the free list, or the next unused one, growing the pool
+   * when it is full.
+   */
+  private int allocate() {
+    Pool pool = nodes.header();
+    if (pool.free() != NIL) {
+      nodes.setHeader(new Pool(pool.used(), nodes.get(pool.free()).next()));
+      return pool.free();
+    }
+    int n = pool.used();
+    if (n == nodes.capacity()) {
+      try {
+        nodes.grow(nodes.capacity() * 2);
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    }
+    nodes.setHeader(new Pool(n + 1, NIL));
+    return n;
+  }
+
+  private void release(int n) {
+    Pool pool = nodes.header();
+    nodes.set(n, new Node<>(null, NIL, NIL, pool.free(), NIL));
+    nodes.setHeader(new Pool(pool.used(), n));
+  }
+
+  private void ensureCapacity(int id) {
+    if (id < firsts.capacity())
+      return;
+    try {
+      firsts.grow(Math.max(id + 1, firsts.capacity() * 2));
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    }
+  }
+}
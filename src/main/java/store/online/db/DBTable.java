@@ -24,6 +24,25 @@ public interface DBTable<K, V> {
    */
   void put(K key, V value);
 
+  /**
+   * Inserts the mapping only if {@code key} is not present yet, as a single
+   * atomic step.
+   *
+   * @param key   the key to insert
+   * @param value the value to associate with {@code key}
+   * @return {@code true} if inserted; {@code false} if the key already existed
+   */
+  boolean putIfAbsent(K key, V value);
+
+  /**
+   * Replaces the value of an existing mapping, as a single atomic step.
+   *
+   * @param key   the key to update
+   * @param value the new value for {@code key}
+   * @return {@code true} if replaced; {@code false} if the key was not present
+   */
+  boolean replace(K key, V value);
+
   /**
    * Removes the mapping for the given key, if present.
    *
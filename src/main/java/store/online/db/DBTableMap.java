@@ -1,18 +1,55 @@
 package store.online.db;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
 import store.online.db.FixedSizeSerializer.*;
-import store.online.utils.list.LinkedList;
+import store.online.utils.list.ArrayList;
 import store.online.utils.list.List;
 
 /**
- * 
+ * Disk-backed hash table with open addressing: linear probing with tombstones
+ * or, with {@link Probing#ROBIN_HOOD}, Robin Hood hashing with backward-shift
+ * deletion.
+ * <p>
+ * Instances are thread-safe: lookups are lock-free (optimistic reads validated
+ * against a {@link StampedLock}) and mutations are serialized.
+ * </p>
+ * <p>
+ * Growth is either a stop-the-world rehash of the file in place or, with
+ * {@link RehashMode#INCREMENTAL}, a migration into {@code path + ".next"} that
+ * moves a bounded batch of slots per write and replaces the original file once
+ * done. The same migration, at the same capacity, is how {@link #vacuum()}
+ * drops tombstones.
+ * </p>
+ * <p>
+ * By default writes land in the mapping only and reach the disk whenever the
+ * OS flushes it. With {@link Durability#WAL} every mutation is also appended to
+ * a {@link WriteAheadLog} at {@code path + ".wal"} and forced (in groups, see
+ * {@link Options#groupCommitMicros()}) before it returns; the table itself is
+ * only forced at checkpoints, and opening the table replays whatever the log
+ * holds past the last one.
+ * </p>
+ *
  * @author Alfredo
  */
-public class DBTableMap<K, V> implements DBTable<K, V>, AutoCloseable {
+public class DBTableMap<K, V> implements DBTable<K, V>, Closeable {
 
   private static class Entry<K, V> {
     private K key;
@@ -52,102 +89,1942 @@ public class DBTableMap<K, V> implements DBTable<K, V>, AutoCloseable {
 
     @Override
     public int fixedSize() {
-      // TODO: Return serialized size of entries
-      return -1; // Dummy return
+      // [state : 4 bytes][key][value]
+      return 4 + keyCodec.fixedSize() + valCodec.fixedSize();
     }
 
     @Override
-    public void write(MappedByteBuffer buf, int pos, DBTableMap.Entry<K, V> e) {
-      // TODO: Write onto buffer
+    public void write(ByteBuffer buf, int pos, DBTableMap.Entry<K, V> e) {
+      buf.putInt(pos, e.state);
+      // Slots that only change state (clear, tombstones) keep their old payload
+      if (e.key != null)
+        keyCodec.write(buf, pos + 4, e.key);
+      if (e.value != null)
+        valCodec.write(buf, pos + 4 + keyCodec.fixedSize(), e.value);
     }
 
     @Override
-    public DBTableMap.Entry<K, V> read(MappedByteBuffer buf, int pos) {
-      // TODO: Read entry from buffer
-      return new DBTableMap.Entry<>(null, null, EMPTY); // Dummy return
+    public DBTableMap.Entry<K, V> read(ByteBuffer buf, int pos) {
+      int state = buf.getInt(pos);
+      if (state != FULL)
+        return new DBTableMap.Entry<>(null, null, state);
+      K key = keyCodec.read(buf, pos + 4);
+      V value = valCodec.read(buf, pos + 4 + keyCodec.fixedSize());
+      return new DBTableMap.Entry<>(key, value, FULL);
     }
   }
 
   public static final record TableHeader(int entryCount, int serialCount) {
   }
 
+  public static final class TableHeaderSerializer implements FixedElementSerializer<TableHeader> {
+
+    @Override
+    public int fixedSize() {
+      // [entryCount : 4 bytes][serialCount : 4 bytes]
+      return 8;
+    }
+
+    @Override
+    public void write(ByteBuffer buf, int pos, TableHeader h) {
+      buf.putInt(pos, h.entryCount());
+      buf.putInt(pos + 4, h.serialCount());
+    }
+
+    @Override
+    public TableHeader read(ByteBuffer buf, int pos) {
+      return new TableHeader(buf.getInt(pos), buf.getInt(pos + 4));
+    }
+  }
+
+  /**
+   * How the table grows once it passes its load factor.
+   */
+  public enum RehashMode {
+    /** Grow the file in place and re-insert every entry in one pass. */
+    STOP_THE_WORLD,
+    /**
+     * Create a table of twice the size next to the current one and move a
+     * bounded number of old slots per write, serving reads from both meanwhile.
+     */
+    INCREMENTAL
+  }
+
+  /**
+   * How keys are placed along their probe sequence. Like the hash function, it
+   * is not stored in the file: a table must always be opened with the probing
+   * it was created with.
+   */
+  public enum Probing {
+    /**
+     * First free slot from the home slot on. Removals leave tombstones, so
+     * after many deletes lookups, misses especially, walk long runs.
+     */
+    LINEAR,
+    /**
+     * Robin Hood hashing: an insert takes the slot of any entry closer to its
+     * own home and carries that entry on, which keeps probe lengths even, and
+     * lets a miss stop as soon as it passes an entry nearer home than itself.
+     * Removals shift the following run back instead of leaving tombstones.
+     * Since writes move entries that are already stored, it cannot be combined
+     * with {@link Durability#WAL}.
+     */
+    ROBIN_HOOD
+  }
+
+  /**
+   * Probe-length figures of a table, from a scan of its slots.
+   *
+   * @param entries         live entries
+   * @param tombstones      deleted slots still in probe chains (always 0 with
+   *                        {@link Probing#ROBIN_HOOD} outside rehashes)
+   * @param capacity        slots
+   * @param meanProbeLength average slots read by a lookup that hits
+   * @param maxProbeLength  slots read by the worst such lookup
+   */
+  public static final record ProbeStats(int entries, int tombstones, int capacity, double meanProbeLength,
+      int maxProbeLength) {
+  }
+
+  /**
+   * Health figures of a table, for monitoring.
+   *
+   * @param probes      probe lengths and tombstones, from a scan of the slots
+   * @param loadFactor  entries over capacity of the array new writes go to
+   * @param rehashes    growths since the table was opened
+   * @param vacuums     vacuums started since the table was opened
+   * @param rehashNanos time spent moving entries for either, incremental
+   *                    batches included
+   * @param rehashing   whether a growth or vacuum is still draining
+   * @param mappedBytes file bytes currently mapped, both arrays during a
+   *                    migration
+   * @param logForces   {@code fsync}s of the write-ahead log since the table
+   *                    was opened (0 without one); well below the writes
+   *                    when group commit works
+   */
+  public static final record Metrics(ProbeStats probes, double loadFactor, long rehashes, long vacuums,
+      long rehashNanos, boolean rehashing, long mappedBytes, long logForces) {
+  }
+
+  /**
+   * What a mutation guarantees once it returns.
+   */
+  public enum Durability {
+    /** Written to the mapping; lost if the machine crashes before writeback. */
+    NONE,
+    /**
+     * Logged and forced to disk; replayed on open after a crash.
+     * <p>
+     * The log holds operations, not slot images, and replay finds their slots
+     * by key. That assumes each slot on disk is either its old or its new
+     * image, which the OS only guarantees a page at a time: a slot that spans
+     * two pages and was half written back when the machine crashed can come
+     * back with a state word and a key from different writes, which replay
+     * neither finds nor repairs (e.g. a removed key whose tombstone was lost
+     * comes back as live). Process crashes are safe, since the mapping itself
+     * survives them; it is machine crashes in the middle of writeback that
+     * are not. For the same reason the log cannot be combined with
+     * {@link Probing#ROBIN_HOOD}, whose writes move several entries.
+     * </p>
+     */
+    WAL
+  }
+
+  /**
+   * Table tuning knobs.
+   *
+   * @param rehashMode     how the table grows
+   * @param migrationBatch old slots moved per write while an incremental
+   *                       rehash is in progress (at least 2, so migration
+   *                       always finishes before the new table fills up)
+   * @param backend           how the table file is mapped into memory
+   * @param durability        whether mutations go through a write-ahead log
+   * @param groupCommitMicros with a log, how long the writer that forces it
+   *                          waits for other writers to join the same
+   *                          {@code fsync} (0 only batches writers that queued
+   *                          during the previous one)
+   * @param probing           collision resolution; fixed for the life of the
+   *                          file
+   * @param vacuumThreshold   share of the slots holding tombstones at which a
+   *                          remove starts a {@link DBTableMap#vacuum()} in
+   *                          the background (0 never does)
+   */
+  public static final record Options(RehashMode rehashMode,
+      int migrationBatch,
+      DiskArray.Backend backend,
+      Durability durability,
+      int groupCommitMicros,
+      Probing probing,
+      double vacuumThreshold) {
+
+    public static final Options DEFAULTS = new Options(RehashMode.STOP_THE_WORLD, 64, DiskArray.Backend.MAPPED_BUFFER,
+        Durability.NONE, 0, Probing.LINEAR, 0);
+
+    public Options {
+      if (rehashMode == null)
+        throw new IllegalArgumentException("Rehash mode cannot be null");
+      if (migrationBatch < 2)
+        throw new IllegalArgumentException("Migration batch must be at least 2");
+      if (backend == null)
+        throw new IllegalArgumentException("Backend cannot be null");
+      if (durability == null)
+        throw new IllegalArgumentException("Durability cannot be null");
+      if (groupCommitMicros < 0)
+        throw new IllegalArgumentException("Group commit delay cannot be negative");
+      if (probing == null)
+        throw new IllegalArgumentException("Probing cannot be null");
+      // Replaying the log cannot repair entries moved by a write that only
+      // partly reached the disk
+      if (probing == Probing.ROBIN_HOOD && durability == Durability.WAL)
+        throw new IllegalArgumentException("Robin Hood probing cannot be combined with a write-ahead log");
+      if (!(vacuumThreshold >= 0 && vacuumThreshold < 1))
+        throw new IllegalArgumentException("Vacuum threshold must be in [0, 1)");
+    }
+
+    public Options withRehashMode(RehashMode mode) {
+      return new Options(mode, migrationBatch, backend, durability, groupCommitMicros, probing, vacuumThreshold);
+    }
+
+    public Options withMigrationBatch(int batch) {
+      return new Options(rehashMode, batch, backend, durability, groupCommitMicros, probing, vacuumThreshold);
+    }
+
+    public Options withBackend(DiskArray.Backend b) {
+      return new Options(rehashMode, migrationBatch, b, durability, groupCommitMicros, probing, vacuumThreshold);
+    }
+
+    public Options withDurability(Durability d) {
+      return new Options(rehashMode, migrationBatch, backend, d, groupCommitMicros, probing, vacuumThreshold);
+    }
+
+    public Options withGroupCommitMicros(int micros) {
+      return new Options(rehashMode, migrationBatch, backend, durability, micros, probing, vacuumThreshold);
+    }
+
+    public Options withProbing(Probing p) {
+      return new Options(rehashMode, migrationBatch, backend, durability, groupCommitMicros, p, vacuumThreshold);
+    }
+
+    public Options withVacuumThreshold(double threshold) {
+      return new Options(rehashMode, migrationBatch, backend, durability, groupCommitMicros, probing, threshold);
+    }
+  }
+
   /**
-   * TODO: Implement table Header Serializer HERE
+   * Mutations available inside {@link DBTableMap#batch}, with the same meaning
+   * as their {@link DBTable} counterparts.
    */
+  public interface Batch<K, V> {
+    /**
+     * @return header including the mutations made so far in the batch
+     */
+    TableHeader header();
+
+    /**
+     * Raises the serial count to at least {@code serial}, e.g. after loading
+     * keys that were handed out elsewhere. Not logged: with
+     * {@link Durability#WAL} it survives a crash only once checkpointed.
+     */
+    void raiseSerial(int serial);
+
+    V get(K key);
+
+    void put(K key, V value);
+
+    boolean putIfAbsent(K key, V value);
+
+    boolean replace(K key, V value);
+
+    V remove(K key);
+  }
+
+  /**
+   * Forward-only walk over the live entries of a table as they were when
+   * {@link DBTableMap#cursor()} opened it. Close it once done (running off the
+   * end does so too): until then, writers keep copies of the slots it has yet
+   * to read.
+   */
+  public interface Cursor<K, V> extends AutoCloseable {
+    /**
+     * Moves to the next entry.
+     *
+     * @return {@code false} once every entry was visited
+     */
+    boolean next();
+
+    /** @return key of the current entry */
+    K key();
+
+    /** @return value of the current entry */
+    V value();
+
+    @Override
+    void close();
+  }
 
   private static final int EMPTY = 0;
   private static final int FULL = 1;
   private static final int USED = 2;
 
+  private static final double LOAD_FACTOR = 0.75;
+
+  /** Slots a {@link Cursor} reads at a time, and a write saves for it. */
+  private static final int CURSOR_PAGE = 256;
+
+  /** Fewest slots a parallel scan hands to one task. */
+  private static final int MIN_SCAN_CHUNK = 1 << 13;
+
+  /** Log size that triggers a checkpoint. */
+  private static final long CHECKPOINT_BYTES = 8L << 20;
+
+  /**
+   * Drains vacuums started by removes, one batch per write-lock hold. A single
+   * daemon thread is shared by every table.
+   */
+  private static final class Vacuums {
+    static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "dbtable-vacuum");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  private final Path path;
+  private final EntrySerializer<K, V> entrySerializer;
+  private final Options options;
   private HashFunction<K> hashFunction;
+
+  /**
+   * The hash function again when keys are ints stored by an
+   * {@link IntSerializer}, so lookups by a primitive key can probe without
+   * boxing; otherwise {@code null}.
+   */
+  private final IntHashFunction intHash;
+  private final IntFunction<V> intLookup = key -> lookupInt(key, null);
+  private final IntFunction<Boolean> intContains = this::hasInt;
   private DiskArray<TableHeader, Entry<K, V>> entries;
 
+  /**
+   * Old array being drained by an incremental rehash, or {@code null}. While it
+   * is set, {@link #entries} is the new array and holds the authoritative
+   * header.
+   */
+  private DiskArray<TableHeader, Entry<K, V>> draining;
+  private int drainCursor;
+
+  /** Mutations applied since the table was opened; written under the write lock. */
+  private volatile long version;
+
+  /**
+   * Header of the {@link #batch} in progress, written to the array when it
+   * ends; {@code null} outside batches. Guarded by the write lock.
+   */
+  private TableHeader pending;
+
+  /** Highest log position appended under the current write lock. */
+  private long unsynced;
+
+  /** Redo log with {@link Durability#WAL}, otherwise {@code null}. */
+  private final WriteAheadLog<K, V> wal;
+  private boolean recovered;
+
+  /** Tombstones in {@link #entries}. Guarded by the write lock. */
+  private int tombstones;
+
+  /** Open {@link #cursor()}s, whose pages writers save before changing them. */
+  private final CopyOnWriteArrayList<Snapshot> cursors = new CopyOnWriteArrayList<>();
+
+  // Guarded by the write lock
+  private long rehashes;
+  private long vacuums;
+  private long rehashNanos;
+  private boolean closed;
+
+  /**
+   * Readers (get, containsKey, header) run optimistically and never block each
+   * other; writers are exclusive, since a put may probe across any part of the
+   * table, bump the shared header or rehash everything.
+   */
+  private final StampedLock lock = new StampedLock();
+
   public DBTableMap(Path path,
       int initialCapacity,
       EntrySerializer<K, V> entrySerializer,
       HashFunction<K> hashFunction) throws IOException {
+    this(path, initialCapacity, entrySerializer, hashFunction, Options.DEFAULTS);
+  }
+
+  public DBTableMap(Path path,
+      int initialCapacity,
+      EntrySerializer<K, V> entrySerializer,
+      HashFunction<K> hashFunction,
+      Options options) throws IOException {
     if (initialCapacity < 1)
       throw new IllegalArgumentException("Capacity must be at least 1");
     if (hashFunction == null)
       throw new IllegalArgumentException("Hash function cannot be null");
+    if (options == null)
+      throw new IllegalArgumentException("Options cannot be null");
 
     // Initialize and create disk array
+    this.path = path;
+    this.entrySerializer = entrySerializer;
+    this.options = options;
     this.hashFunction = hashFunction;
-    this.entries = new DiskArray<>(path, initialCapacity, null /* header */, entrySerializer);
+    this.intHash = hashFunction instanceof IntHashFunction ih && entrySerializer.keyCodec instanceof IntSerializer
+        ? ih
+        : null;
+    this.entries = new DiskArray<>(path, initialCapacity, new TableHeaderSerializer(), entrySerializer,
+        options.backend());
+
+    // The caller never gets a handle to close if opening fails past this point
+    WriteAheadLog<K, V> log = null;
+    try {
+      // An incremental rehash was interrupted: the new array holds the header
+      // and every migrated or newly written key, so resume draining the old one
+      Path next = nextPath();
+      if (Files.exists(next)) {
+        this.draining = entries;
+        this.entries = new DiskArray<>(next, initialCapacity, new TableHeaderSerializer(), entrySerializer,
+            options.backend());
+        this.drainCursor = 0;
+      }
+
+      // Only the state word of each slot is read, so this costs little even on
+      // large tables
+      for (int i = 0; i < entries.capacity(); i++)
+        if (entries.intAt(i, 0) == USED)
+          tombstones++;
+
+      if (options.durability() == Durability.WAL) {
+        log = new WriteAheadLog<>(walPath(), entrySerializer.keyCodec, entrySerializer.valCodec,
+            options.groupCommitMicros());
+        this.wal = log;
+        recover();
+      } else {
+        this.wal = null;
+      }
+    } catch (IOException | RuntimeException e) {
+      closeAfterFailedOpen(e, log, entries, draining);
+      throw e;
+    }
   }
 
   @Override
   public V get(K key) {
-    // TODO: IMPLEMENT GET HERE
-    return null; // Dummy return
+    return read(() -> {
+      int slot = find(entries, key);
+      if (slot >= 0)
+        return valueAt(entries, slot);
+      var old = draining;
+      if (old != null && (slot = findOld(old, key)) >= 0)
+        return valueAt(old, slot);
+      return null;
+    });
   }
 
   @Override
   public void put(K key, V value) {
-    // TODO: IMPLEMENT PUT HERE
+    write(() -> {
+      putLocked(key, value);
+      return null;
+    });
+  }
+
+  @Override
+  public boolean putIfAbsent(K key, V value) {
+    return write(() -> putIfAbsentLocked(key, value));
+  }
+
+  @Override
+  public boolean replace(K key, V value) {
+    return write(() -> replaceLocked(key, value));
   }
 
   @Override
   public V remove(K key) {
-    // TODO: IMPLEMENT REMOVE HERE
-    return null; // Dummy return
+    return write(() -> removeLocked(key));
   }
 
   @Override
   public boolean containsKey(K key) {
-    // TODO: IMPLEMENT CONTAINS KEY
-    return false; // Dummy return
+    return read(() -> {
+      if (find(entries, key) >= 0)
+        return true;
+      var old = draining;
+      return old != null && findOld(old, key) >= 0;
+    });
+  }
+
+  /**
+   * {@link #get} by an int key, without boxing it. Only tables whose keys are
+   * ints stored by an {@link IntSerializer} and hashed by an
+   * {@link IntHashFunction} support it (see {@link IntKeyDBTableMap}).
+   */
+  V getByInt(int key) {
+    return read(intLookup, key);
+  }
+
+  /**
+   * {@link #containsKey} by an int key, without boxing it or decoding any
+   * value. Same restrictions as {@link #getByInt}.
+   */
+  boolean containsIntKey(int key) {
+    return read(intContains, key);
+  }
+
+  /**
+   * Reads the value stored under {@code key} in place, with a reader that
+   * only decodes what it needs (e.g. one field to test before decoding the
+   * rest) instead of the value codec.
+   * <p>
+   * The reader gets the mapped buffer and the position the value starts at,
+   * both valid only during the call. Like {@link #get}, it may run more than
+   * once if a writer gets in the way, so it must not have side effects.
+   * </p>
+   *
+   * @param key    key to look up
+   * @param reader reads the value
+   * @return what {@code reader} returned, or {@code null} if the key is absent
+   */
+  public <R> R view(K key, FieldReader<R> reader) {
+    if (reader == null)
+      throw new IllegalArgumentException("Reader cannot be null");
+    return read(() -> {
+      int slot = find(entries, key);
+      if (slot >= 0)
+        return valueAt(entries, slot, reader);
+      var old = draining;
+      if (old != null && (slot = findOld(old, key)) >= 0)
+        return valueAt(old, slot, reader);
+      return null;
+    });
+  }
+
+  /**
+   * {@link #view} by an int key. Same restrictions as {@link #getByInt}.
+   */
+  <R> R viewByInt(int key, FieldReader<R> reader) {
+    if (reader == null)
+      throw new IllegalArgumentException("Reader cannot be null");
+    return read(k -> lookupInt(k, reader), key);
+  }
+
+  /**
+   * Reads every live value in place with {@code reader} (see {@link #view})
+   * and keeps the non-null results, so a filter over the table decodes only
+   * the fields it tests and materializes only what passes. Takes the read
+   * lock for the whole scan, as {@link #getValues()} does.
+   *
+   * @param reader reads one value, returning {@code null} to skip it
+   * @return non-null results, in slot order
+   */
+  public <R> List<R> scanValues(FieldReader<R> reader) {
+    if (reader == null)
+      throw new IllegalArgumentException("Reader cannot be null");
+    long stamp = lock.readLock();
+    try {
+      List<R> out = new ArrayList<>();
+      scanValues(entries, 0, entries.capacity(), reader, out);
+      if (draining != null)
+        scanValues(draining, drainCursor, draining.capacity(), reader, out);
+      return out;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Values whose bytes pass {@code match}, whose offset counts from the start
+   * of the value. Rejected values are never decoded.
+   *
+   * @param match test on one field of the value
+   * @return matching values, in slot order
+   */
+  public List<V> scanValues(FieldMatch match) {
+    return scanValues(match, entrySerializer.valCodec);
+  }
+
+  /**
+   * {@link #scanValues(FieldReader)} over the values whose bytes pass
+   * {@code match}; {@code reader} only sees those.
+   *
+   * @param match  test on one field of the value
+   * @param reader reads a matching value, returning {@code null} to skip it
+   * @return non-null results, in slot order
+   */
+  public <R> List<R> scanValues(FieldMatch match, FieldReader<R> reader) {
+    if (match == null || reader == null)
+      throw new IllegalArgumentException("Match and reader cannot be null");
+    return scanValues((buf, pos) -> match.test(buf, pos) ? reader.read(buf, pos) : null);
+  }
+
+  /**
+   * {@link #scanValues(FieldReader)} spread over the common
+   * {@link ForkJoinPool}: the slots are cut into chunks, each read by a task
+   * with its own reader from {@code readers} (so readers may keep state, such
+   * as a reused view), and the results are joined in slot order. The read lock
+   * is held until every chunk is done. Tables too small to split are scanned on
+   * the calling thread.
+   *
+   * @param readers makes one reader per chunk
+   * @return non-null results, in slot order
+   */
+  public <R> List<R> parallelScanValues(Supplier<? extends FieldReader<R>> readers) {
+    if (readers == null)
+      throw new IllegalArgumentException("Readers cannot be null");
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    long stamp = lock.readLock();
+    try {
+      int slots = entries.capacity() + (draining != null ? draining.capacity() - drainCursor : 0);
+      int chunk = Math.max(MIN_SCAN_CHUNK, slots / (4 * pool.getParallelism()));
+      if (slots < 2 * chunk) {
+        FieldReader<R> reader = readers.get();
+        List<R> out = new ArrayList<>();
+        scanValues(entries, 0, entries.capacity(), reader, out);
+        if (draining != null)
+          scanValues(draining, drainCursor, draining.capacity(), reader, out);
+        return out;
+      }
+
+      List<ScanChunk<R>> chunks = new ArrayList<>();
+      for (int from = 0; from < entries.capacity(); from += chunk)
+        chunks.add(new ScanChunk<>(entries, from, Math.min(entries.capacity(), from + chunk), readers));
+      if (draining != null)
+        for (int from = drainCursor; from < draining.capacity(); from += chunk)
+          chunks.add(new ScanChunk<>(draining, from, Math.min(draining.capacity(), from + chunk), readers));
+      return pool.invoke(new RecursiveTask<List<R>>() {
+        @Override
+        protected List<R> compute() {
+          for (ScanChunk<R> c : chunks)
+            c.fork();
+          List<R> out = new ArrayList<>();
+          for (ScanChunk<R> c : chunks)
+            for (R r : c.join())
+              out.add(r);
+          return out;
+        }
+      });
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * {@link #getValues()} decoded by {@link #parallelScanValues}. Value codecs
+   * are shared by concurrent readers already, so one serves every chunk.
+   *
+   * @return every value, in slot order
+   */
+  public List<V> parallelGetValues() {
+    return parallelScanValues(() -> entrySerializer.valCodec);
+  }
+
+  /**
+   * Opens a cursor over the live entries as of now, reading the table a page
+   * of slots at a time instead of copying it. Writers are never blocked by it:
+   * before changing a page the cursor has not read yet, a write saves a copy
+   * for it (so only pages written during the walk are ever copied, all of them
+   * if the table is cleared or rehashed in place), and the cursor reads that
+   * copy instead. The walk therefore sees one consistent state of the table,
+   * never a torn entry, and no entry twice.
+   * <p>
+   * A cursor is for one thread. Entries come in slot order, not key order.
+   * </p>
+   *
+   * @return a cursor positioned before the first entry
+   * @throws IllegalStateException if the table was closed
+   */
+  public Cursor<K, V> cursor() {
+    long stamp = lock.readLock();
+    try {
+      if (closed)
+        throw new IllegalStateException("Table is closed");
+      Snapshot c = new Snapshot();
+      cursors.add(c);
+      return c;
+    } finally {
+      lock.unlockRead(stamp);
+    }
   }
 
   @Override
   public List<K> getKeys() {
-    // TODO: IMPLEMENT GET_KEYS HERE
-    return new LinkedList<K>(); // Dummy Return
+    long stamp = lock.readLock();
+    try {
+      List<K> keys = new ArrayList<>();
+      forEachLive(entries, e -> keys.add(e.getKey()));
+      if (draining != null)
+        forEachLive(draining, drainCursor, e -> keys.add(e.getKey()));
+      return keys;
+    } finally {
+      lock.unlockRead(stamp);
+    }
   }
 
   @Override
   public List<V> getValues() {
-    // TODO: IMPLEMENT GET_KEYS HERE
-    return new LinkedList<V>(); // Dummy Return
+    long stamp = lock.readLock();
+    try {
+      List<V> values = new ArrayList<>();
+      forEachLive(entries, e -> values.add(e.getValue()));
+      if (draining != null)
+        forEachLive(draining, drainCursor, e -> values.add(e.getValue()));
+      return values;
+    } finally {
+      lock.unlockRead(stamp);
+    }
   }
 
   @Override
   public TableHeader header() {
-    return entries.header();
+    // Not entries::header, which would bind the array before the stamp is
+    // taken and so miss a migration swapping it
+    return read(() -> entries.header());
   }
 
   @Override
   public void clear() {
-    // TODO: IMPLEMENT CLEAR HERE
+    write(() -> {
+      try {
+        wipe();
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+      version++;
+      log(() -> wal.appendClear());
+      return null;
+    });
+  }
+
+  /**
+   * Applies several mutations as one write: the table is locked once, the
+   * header is written once at the end and, with a log, writers wait for a
+   * single {@code fsync}. Other threads see either none or all of the batch.
+   * <p>
+   * The {@link Batch} handed to {@code ops} is only valid during the call. If
+   * {@code ops} throws, the mutations it made so far stay applied.
+   * </p>
+   *
+   * @param ops mutations to apply
+   */
+  public void batch(Consumer<Batch<K, V>> ops) {
+    write(() -> {
+      applyBatch(ops);
+      return null;
+    });
+  }
+
+  /**
+   * {@link #batch} that returns once the mutations are applied, without
+   * waiting for the log to reach the disk. A caller that serializes its writes
+   * with a lock of its own (e.g. to keep derived indexes in step) applies them
+   * under that lock and waits with {@link #awaitDurable} after leaving it, so
+   * its writers still share {@code fsync}s.
+   *
+   * @param ops mutations to apply
+   * @return sequence number to pass to {@link #awaitDurable}
+   */
+  public long batchUnsynced(Consumer<Batch<K, V>> ops) {
+    long lsn;
+    long stamp = lock.writeLock();
+    try {
+      applyBatch(ops);
+    } finally {
+      lsn = unsynced;
+      unsynced = 0;
+      lock.unlockWrite(stamp);
+    }
+    return lsn;
+  }
+
+  /**
+   * Blocks until the mutations of a {@link #batchUnsynced} call are on disk,
+   * forcing the log unless another writer's {@code fsync} covers them. Returns
+   * at once without a log.
+   *
+   * @param lsn sequence number returned by {@link #batchUnsynced}
+   */
+  public void awaitDurable(long lsn) {
+    sync(lsn);
+  }
+
+  /**
+   * Grows the table up front so that {@code expectedEntries} more keys fit
+   * without a rehash, e.g. before a large {@link #batch}. Never shrinks it.
+   *
+   * @param expectedEntries keys about to be added
+   * @throws IOException if growing the file fails
+   */
+  public void reserve(int expectedEntries) throws IOException {
+    if (expectedEntries < 0)
+      throw new IllegalArgumentException("Expected entries cannot be negative");
+    try {
+      write(() -> {
+        long needed = (long) Math.ceil((hdr().entryCount() + (long) expectedEntries) / LOAD_FACTOR) + 1;
+        if (needed > Integer.MAX_VALUE)
+          throw new IllegalArgumentException("Table cannot hold " + expectedEntries + " more entries");
+        if (needed > entries.capacity()) {
+          try {
+            grow((int) Math.max(needed, Math.min(Integer.MAX_VALUE, 2L * entries.capacity())));
+          } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+          }
+        }
+        return null;
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Change counter of the table: it moves on every successful put, remove or
+   * clear, so anything derived from the contents can be kept until it does. It
+   * starts over at 0 when the table is reopened.
+   *
+   * @return mutations applied since the table was opened
+   */
+  public long version() {
+    return version;
+  }
+
+  /**
+   * @return whether an incremental rehash is still moving entries over
+   */
+  public boolean isRehashing() {
+    return read(() -> draining != null);
+  }
+
+  /**
+   * Rewrites the table without its tombstones, into a fresh array of the same
+   * capacity next to it (as an incremental rehash does). Slots are moved a
+   * batch at a time, releasing the lock in between, so readers and writers
+   * only ever wait for one batch. Reads and writes go on meanwhile; removes
+   * made during the vacuum may leave new tombstones.
+   * <p>
+   * Tables with {@link Probing#ROBIN_HOOD} have no tombstones to drop.
+   * </p>
+   *
+   * @return tombstones dropped
+   * @throws IOException if creating or replacing the file fails
+   */
+  public int vacuum() throws IOException {
+    try {
+      // A migration in progress already drops the tombstones it drains
+      drain();
+      int dropped = write(() -> {
+        if (closed || tombstones == 0)
+          return 0;
+        try {
+          finishMigration();
+          int n = tombstones;
+          startMigration(entries.capacity());
+          vacuums++;
+          return n;
+        } catch (IOException ioe) {
+          throw new UncheckedIOException(ioe);
+        }
+      });
+      drain();
+      return dropped;
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * @return tombstones currently in the table, kept as a running count
+   */
+  public int tombstones() {
+    return read(() -> tombstones);
+  }
+
+  /**
+   * Scans the table for its probe lengths. Takes time linear in the capacity,
+   * during which writers wait.
+   *
+   * @return probe-length figures of the array new writes go to
+   */
+  public ProbeStats probeStats() {
+    long stamp = lock.readLock();
+    try {
+      return scanProbes();
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Collects the health figures of the table. Includes a
+   * {@link #probeStats() probe scan}, so it takes time linear in the capacity.
+   *
+   * @return current figures
+   * @throws IllegalStateException if the table was closed
+   */
+  public Metrics metrics() {
+    long stamp = lock.readLock();
+    try {
+      if (closed)
+        throw new IllegalStateException("Table is closed");
+      ProbeStats probes = scanProbes();
+      long mapped = entries.mappedBytes() + (draining != null ? draining.mappedBytes() : 0);
+      return new Metrics(probes, (double) hdr().entryCount() / entries.capacity(), rehashes, vacuums, rehashNanos,
+          draining != null, mapped, wal == null ? 0 : wal.forces());
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * @return whether opening the table replayed records from its write-ahead
+   *         log, i.e. it was not closed cleanly (derived data such as indexes
+   *         may be stale)
+   */
+  public boolean recovered() {
+    return recovered;
   }
 
   /**
-   * Closes the underlying channel/mapping resources.
+   * Makes the table durable in its current state and, if it has a write-ahead
+   * log, empties the log.
+   *
+   * @throws IOException if forcing the table or truncating the log fails
+   */
+  public void checkpoint() throws IOException {
+    long stamp = lock.writeLock();
+    try {
+      if (wal != null) {
+        flush();
+      } else {
+        entries.force();
+        if (draining != null)
+          draining.force();
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Closes the underlying channel/mapping resources. With a write-ahead log the
+   * table is checkpointed first, so a clean close leaves nothing to replay.
    *
    * @throws IOException if closing the backing file/channel fails
    */
   @Override
   public void close() throws IOException {
-    entries.close();
+    long stamp = lock.writeLock();
+    closed = true; // stops a background vacuum
+    lock.unlockWrite(stamp);
+    try {
+      if (wal != null) {
+        checkpoint();
+        wal.close();
+      }
+    } finally {
+      try {
+        entries.close();
+      } finally {
+        if (draining != null)
+          draining.close();
+      }
+    }
+  }
+
+  // ---- internals ----
+
+  /**
+   * Body of {@link #batch}. Caller holds the write lock.
+   */
+  private void applyBatch(Consumer<Batch<K, V>> ops) {
+    pending = entries.header();
+    try {
+      ops.accept(new Batch<>() {
+        @Override
+        public TableHeader header() {
+          return pending;
+        }
+
+        @Override
+        public void raiseSerial(int serial) {
+          if (serial > pending.serialCount())
+            pending = new TableHeader(pending.entryCount(), serial);
+        }
+
+        @Override
+        public V get(K key) {
+          int slot = find(entries, key);
+          if (slot >= 0)
+            return valueAt(entries, slot);
+          if (draining != null && (slot = findOld(draining, key)) >= 0)
+            return valueAt(draining, slot);
+          return null;
+        }
+
+        @Override
+        public void put(K key, V value) {
+          putLocked(key, value);
+        }
+
+        @Override
+        public boolean putIfAbsent(K key, V value) {
+          return putIfAbsentLocked(key, value);
+        }
+
+        @Override
+        public boolean replace(K key, V value) {
+          return replaceLocked(key, value);
+        }
+
+        @Override
+        public V remove(K key) {
+          return removeLocked(key);
+        }
+      });
+    } finally {
+      entries.setHeader(pending);
+      pending = null;
+    }
+  }
+
+  /**
+   * Closes whatever a constructor that is about to throw {@code cause} had
+   * opened, keeping any failure to do so as suppressed by {@code cause}.
+   */
+  private static void closeAfterFailedOpen(Exception cause, AutoCloseable... open) {
+    for (AutoCloseable c : open) {
+      if (c == null)
+        continue;
+      try {
+        c.close();
+      } catch (Exception e) {
+        cause.addSuppressed(e);
+      }
+    }
+  }
+
+  /**
+   * Probe lengths of the array new writes go to. Reads only the state word and
+   * key of each slot, never the value. Caller holds a lock.
+   */
+  private ProbeStats scanProbes() {
+    int capacity = entries.capacity();
+    int live = 0, tombs = 0, max = 0;
+    long total = 0;
+    for (int i = 0; i < capacity; i++) {
+      int state = entries.intAt(i, 0);
+      if (state == USED) {
+        tombs++;
+      } else if (state == FULL) {
+        int probes = distance(entries.readAt(i, 4, entrySerializer.keyCodec), i, capacity) + 1;
+        live++;
+        total += probes;
+        max = Math.max(max, probes);
+      }
+    }
+    return new ProbeStats(live, tombs, capacity, live == 0 ? 0 : (double) total / live, max);
+  }
+
+  /**
+   * Runs a mutation under the write lock, then waits (outside the lock) for
+   * whatever it logged to be on disk.
+   */
+  private <T> T write(Supplier<T> op) {
+    T result;
+    long lsn;
+    long stamp = lock.writeLock();
+    try {
+      result = op.get();
+    } finally {
+      lsn = unsynced;
+      unsynced = 0;
+      lock.unlockWrite(stamp);
+    }
+    sync(lsn);
+    return result;
+  }
+
+  /**
+   * Finishes a migration in progress one batch per write-lock hold.
+   */
+  private void drain() {
+    for (;;) {
+      long stamp = lock.writeLock();
+      try {
+        if (closed || draining == null)
+          return;
+        migrate();
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+  }
+
+  /**
+   * Starts a vacuum, drained in the background, once tombstones pass the
+   * configured share of the slots. Caller holds the write lock.
+   */
+  private void maybeVacuum() {
+    double threshold = options.vacuumThreshold();
+    if (threshold == 0 || draining != null || tombstones < threshold * entries.capacity())
+      return;
+    try {
+      startMigration(entries.capacity());
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    }
+    vacuums++;
+    Vacuums.EXECUTOR.execute(() -> {
+      try {
+        drain();
+      } catch (RuntimeException e) {
+        // Left for the next writes to drain
+      }
+    });
+  }
+
+  private void putLocked(K key, V value) {
+    requireValue(value);
+    if (!overwrite(key, value))
+      insert(key, value);
+    migrate();
+    version++;
+    logPut(key, value);
+  }
+
+  private boolean putIfAbsentLocked(K key, V value) {
+    requireValue(value);
+    if (find(entries, key) >= 0 || (draining != null && findOld(draining, key) >= 0))
+      return false;
+    insert(key, value);
+    migrate();
+    version++;
+    logPut(key, value);
+    return true;
+  }
+
+  private boolean replaceLocked(K key, V value) {
+    requireValue(value);
+    boolean replaced = overwrite(key, value);
+    migrate();
+    if (replaced) {
+      version++;
+      logPut(key, value);
+    }
+    return replaced;
+  }
+
+  private V removeLocked(K key) {
+    V prev = delete(key);
+    migrate();
+    if (prev != null) {
+      version++;
+      log(() -> wal.appendRemove(key));
+      maybeVacuum();
+    }
+    return prev;
+  }
+
+  private static void requireValue(Object value) {
+    if (value == null)
+      throw new IllegalArgumentException("Value cannot be null");
+  }
+
+  /**
+   * Current header: the pending one during a {@link #batch}, otherwise the one
+   * in the array. Caller holds the write lock.
+   */
+  private TableHeader hdr() {
+    return pending != null ? pending : entries.header();
+  }
+
+  private void setHdr(TableHeader h) {
+    if (pending != null)
+      pending = h;
+    else
+      entries.setHeader(h);
+  }
+
+  /**
+   * Removes a key wherever it lives. Caller holds the write lock.
+   *
+   * @return the value it held, or {@code null} if absent
+   */
+  private V delete(K key) {
+    V prev = null;
+    int slot = find(entries, key);
+    if (slot >= 0)
+      prev = erase(entries, slot);
+    else if (draining != null && (slot = findOld(draining, key)) >= 0)
+      prev = tombstone(draining, slot);
+
+    if (prev != null) {
+      TableHeader h = hdr();
+      setHdr(new TableHeader(h.entryCount() - 1, h.serialCount()));
+    }
+    return prev;
+  }
+
+  /**
+   * Empties every slot. Caller holds the write lock.
+   */
+  private void wipe() throws IOException {
+    finishMigration();
+    for (int i = 0; i < entries.capacity(); i++)
+      store(entries, i, new Entry<>());
+    tombstones = 0;
+    // Serial count is kept so cleared ids are never handed out again
+    setHdr(new TableHeader(0, hdr().serialCount()));
+  }
+
+  /**
+   * Runs a read-only operation without locking and validates it afterwards. If
+   * a writer got in the way (the result may be torn, or decoding may even have
+   * failed against a half-written slot) the operation is retried under the read
+   * lock.
+   */
+  private <T> T read(Supplier<T> op) {
+    return read(key -> op.get(), 0);
+  }
+
+  /**
+   * {@link #read(Supplier)} for operations on an int key, which can be kept in
+   * a field instead of capturing the key on every call.
+   */
+  private <T> T read(IntFunction<T> op, int key) {
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0L) {
+      try {
+        T result = op.apply(key);
+        if (lock.validate(stamp))
+          return result;
+      } catch (RuntimeException e) {
+        if (lock.validate(stamp))
+          throw e;
+      }
+    }
+    stamp = lock.readLock();
+    try {
+      return op.apply(key);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Replaces the value of an existing key wherever it lives. A key still in the
+   * draining array moves to the new one. Caller holds the write lock.
+   *
+   * @return {@code false} if the key is absent
+   */
+  private boolean overwrite(K key, V value) {
+    int slot = find(entries, key);
+    if (slot >= 0) {
+      store(entries, slot, new Entry<>(key, value, FULL)); // entry count is unchanged
+      return true;
+    }
+    if (draining != null && (slot = findOld(draining, key)) >= 0) {
+      tombstone(draining, slot);
+      place(entries, new Entry<>(key, value, FULL));
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Adds a key known to be absent, growing the table first if the load factor
+   * would be exceeded. Caller holds the write lock.
+   */
+  private void insert(K key, V value) {
+    TableHeader h = hdr();
+    if (h.entryCount() + 1 > LOAD_FACTOR * entries.capacity()) {
+      try {
+        grow(entries.capacity() * 2);
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    }
+
+    place(entries, new Entry<>(key, value, FULL));
+    setHdr(new TableHeader(h.entryCount() + 1, h.serialCount() + 1));
+  }
+
+  /**
+   * Removes the entry in a live slot of the array new writes go to: a
+   * tombstone with linear probing, a backward shift with Robin Hood probing.
+   * Drained arrays always get tombstones (see {@link #findOld}).
+   *
+   * @return the value it held
+   */
+  private V erase(DiskArray<TableHeader, Entry<K, V>> arr, int slot) {
+    if (options.probing() == Probing.LINEAR)
+      return tombstone(arr, slot);
+    int capacity = arr.capacity();
+    V prev = arr.get(slot).getValue();
+    // Pull the rest of the run back by one, up to a free slot or an entry
+    // already at its home, so no lookup ever has to skip the hole
+    for (;;) {
+      int next = (slot + 1) % capacity;
+      Entry<K, V> e = arr.get(next);
+      if (e.state != FULL || distance(e.getKey(), next, capacity) == 0) {
+        store(arr, slot, new Entry<>());
+        return prev;
+      }
+      store(arr, slot, e);
+      slot = next;
+    }
+  }
+
+  /**
+   * Marks a live slot as deleted.
+   *
+   * @return the value it held
+   */
+  private V tombstone(DiskArray<TableHeader, Entry<K, V>> arr, int slot) {
+    if (arr == entries)
+      tombstones++;
+    // Leave a tombstone so probe chains running through this slot stay intact
+    return store(arr, slot, new Entry<>(null, null, USED)).getValue();
+  }
+
+  private <R> void scanValues(DiskArray<TableHeader, Entry<K, V>> arr, int from, int to, FieldReader<R> reader,
+      List<R> out) {
+    for (int i = from; i < to; i++) {
+      if (arr.intAt(i, 0) != FULL)
+        continue;
+      R r = arr.readAt(i, valueOffset(), reader);
+      if (r != null)
+        out.add(r);
+    }
+  }
+
+  /**
+   * One slot range of a {@link #parallelScanValues} scan. Runs while the
+   * caller holds the read lock.
+   */
+  private final class ScanChunk<R> extends RecursiveTask<List<R>> {
+    private static final long serialVersionUID = 1L;
+
+    private final DiskArray<TableHeader, Entry<K, V>> arr;
+    private final int from;
+    private final int to;
+    private final Supplier<? extends FieldReader<R>> readers;
+
+    ScanChunk(DiskArray<TableHeader, Entry<K, V>> arr, int from, int to, Supplier<? extends FieldReader<R>> readers) {
+      this.arr = arr;
+      this.from = from;
+      this.to = to;
+      this.readers = readers;
+    }
+
+    @Override
+    protected List<R> compute() {
+      List<R> out = new ArrayList<>();
+      scanValues(arr, from, to, readers.get(), out);
+      return out;
+    }
+  }
+
+  /**
+   * Writes a slot, first saving its page for the open cursors that still have
+   * to read it. Every slot write goes through here. Caller holds the write
+   * lock.
+   *
+   * @return the previous entry
+   */
+  private Entry<K, V> store(DiskArray<TableHeader, Entry<K, V>> arr, int slot, Entry<K, V> e) {
+    if (!cursors.isEmpty())
+      for (Snapshot c : cursors)
+        c.preserve(arr, slot);
+    return arr.set(slot, e);
+  }
+
+  /**
+   * Live entries of {@code arr} in slots [from, to).
+   */
+  private List<Entry<K, V>> liveEntries(DiskArray<TableHeader, Entry<K, V>> arr, int from, int to) {
+    List<Entry<K, V>> out = new ArrayList<>();
+    for (int i = from; i < to; i++) {
+      Entry<K, V> e = arr.get(i);
+      if (e.state == FULL)
+        out.add(e);
+    }
+    return out;
+  }
+
+  /**
+   * A {@link Cursor}: the slot ranges that were authoritative when it opened
+   * (the whole array new writes go to, plus the undrained part of a migrating
+   * one), walked a page at a time. Pages are numbered across the ranges;
+   * writers save those at or past {@link #position} before touching them.
+   */
+  private final class Snapshot implements Cursor<K, V> {
+    private final DiskArray<TableHeader, Entry<K, V>>[] arrays;
+    private final int[] from;
+    private final int[] to;
+
+    /** Pages saved by writers, by {@link #pageKey}. */
+    private final ConcurrentHashMap<Long, List<Entry<K, V>>> saved = new ConcurrentHashMap<>();
+
+    /** Key of the next page to read; every page before it has been read. */
+    private volatile long position;
+
+    private List<Entry<K, V>> page;
+    private int index;
+    private Entry<K, V> current;
+    private boolean open = true;
+
+    /** Caller holds a lock. */
+    @SuppressWarnings("unchecked")
+    Snapshot() {
+      int n = draining != null ? 2 : 1;
+      arrays = (DiskArray<TableHeader, Entry<K, V>>[]) new DiskArray<?, ?>[n];
+      from = new int[n];
+      to = new int[n];
+      arrays[0] = entries;
+      to[0] = entries.capacity();
+      if (draining != null) {
+        arrays[1] = draining;
+        from[1] = drainCursor;
+        to[1] = draining.capacity();
+      }
+    }
+
+    @Override
+    public boolean next() {
+      while (page == null || index == page.size()) {
+        int range = (int) (position >>> 32);
+        if (!open || range == arrays.length) {
+          close();
+          return false;
+        }
+        long key = position;
+        page = readPage(key);
+        index = 0;
+        int start = pageStart(key) + CURSOR_PAGE;
+        position = start < to[range] ? key + 1 : pageKey(range + 1, 0);
+        saved.remove(key);
+      }
+      current = page.get(index++);
+      return true;
+    }
+
+    @Override
+    public K key() {
+      return entry().getKey();
+    }
+
+    @Override
+    public V value() {
+      return entry().getValue();
+    }
+
+    @Override
+    public void close() {
+      if (!open)
+        return;
+      open = false;
+      cursors.remove(this);
+      saved.clear();
+      page = null;
+      current = null;
+    }
+
+    private Entry<K, V> entry() {
+      if (current == null)
+        throw new NoSuchElementException("Cursor is not on an entry");
+      return current;
+    }
+
+    /**
+     * Saves the page holding {@code slot} of {@code arr} if this cursor has
+     * yet to read it. Caller holds the write lock.
+     */
+    void preserve(DiskArray<TableHeader, Entry<K, V>> arr, int slot) {
+      for (int r = 0; r < arrays.length; r++) {
+        if (arrays[r] != arr || slot < from[r] || slot >= to[r])
+          continue;
+        long key = pageKey(r, (slot - from[r]) / CURSOR_PAGE);
+        if (key >= position && !saved.containsKey(key))
+          saved.put(key, livePage(key));
+      }
+    }
+
+    /**
+     * Saves every unread page of {@code arr}, which is about to be closed.
+     * Caller holds the write lock.
+     */
+    void preserveAll(DiskArray<TableHeader, Entry<K, V>> arr) {
+      for (int r = 0; r < arrays.length; r++) {
+        if (arrays[r] != arr)
+          continue;
+        for (int p = 0; from[r] + p * CURSOR_PAGE < to[r]; p++) {
+          long key = pageKey(r, p);
+          if (key >= position && !saved.containsKey(key))
+            saved.put(key, livePage(key));
+        }
+      }
+    }
+
+    /**
+     * The copy a writer saved, else the live slots: read optimistically and,
+     * if a writer got in the way (and so saved the page), once more under the
+     * read lock. The stamp is taken before looking for a copy, so a writer
+     * that saves the page after that look also fails the validation.
+     */
+    private List<Entry<K, V>> readPage(long key) {
+      long stamp = lock.tryOptimisticRead();
+      List<Entry<K, V>> copy = saved.get(key);
+      if (copy != null)
+        return copy;
+      if (stamp != 0L) {
+        try {
+          List<Entry<K, V>> live = livePage(key);
+          if (lock.validate(stamp))
+            return live;
+        } catch (RuntimeException e) {
+          if (lock.validate(stamp))
+            throw e;
+        }
+      }
+      stamp = lock.readLock();
+      try {
+        copy = saved.get(key);
+        if (copy != null)
+          return copy;
+        if (closed)
+          throw new IllegalStateException("Table is closed");
+        return livePage(key);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    private List<Entry<K, V>> livePage(long key) {
+      int range = (int) (key >>> 32);
+      int start = pageStart(key);
+      return liveEntries(arrays[range], start, Math.min(to[range], start + CURSOR_PAGE));
+    }
+
+    private int pageStart(long key) {
+      return from[(int) (key >>> 32)] + (int) key * CURSOR_PAGE;
+    }
+
+    private long pageKey(int range, int page) {
+      return (long) range << 32 | page;
+    }
+  }
+
+  private void forEachLive(DiskArray<TableHeader, Entry<K, V>> arr, Consumer<Entry<K, V>> action) {
+    forEachLive(arr, 0, action);
+  }
+
+  private void forEachLive(DiskArray<TableHeader, Entry<K, V>> arr, int from, Consumer<Entry<K, V>> action) {
+    for (int i = from; i < arr.capacity(); i++) {
+      Entry<K, V> e = arr.get(i);
+      if (e.state == FULL)
+        action.accept(e);
+    }
+  }
+
+  /**
+   * Home slot of a key: non-negative hash reduced to the current capacity.
+   */
+  private int home(K key, int capacity) {
+    return Math.floorMod(Math.abs(hashFunction.hashCode(key)), capacity);
+  }
+
+  /**
+   * Slots between the home of {@code key} and {@code slot}, i.e. how far an
+   * entry stored at {@code slot} was displaced.
+   */
+  private int distance(K key, int slot, int capacity) {
+    return Math.floorMod(slot - home(key, capacity), capacity);
+  }
+
+  /**
+   * Probe for a live key. With Robin Hood probing a miss stops at the first
+   * entry closer to its home than the key would be; tombstones (left in
+   * drained arrays only) are stepped over.
+   *
+   * @return slot index holding {@code key}, or -1 if absent
+   */
+  private int find(DiskArray<TableHeader, Entry<K, V>> arr, K key) {
+    if (key == null)
+      throw new IllegalArgumentException("Key cannot be null");
+    boolean robinHood = options.probing() == Probing.ROBIN_HOOD;
+    int capacity = arr.capacity();
+    int slot = home(key, capacity);
+    for (int probes = 0; probes < capacity; probes++) {
+      // Only the key is decoded while probing; the value waits for a hit
+      int state = arr.intAt(slot, 0);
+      if (state == EMPTY)
+        return -1;
+      if (state == FULL) {
+        K k = arr.readAt(slot, 4, entrySerializer.keyCodec);
+        if (k.equals(key))
+          return slot;
+        if (robinHood && distance(k, slot, capacity) < probes)
+          return -1;
+      }
+      slot = (slot + 1) % capacity;
+    }
+    return -1;
+  }
+
+  /**
+   * {@link #find} for an int key, comparing it against the raw key field of
+   * each slot.
+   */
+  private int findInt(DiskArray<TableHeader, Entry<K, V>> arr, int key) {
+    if (intHash == null)
+      throw new UnsupportedOperationException("Table keys are not ints");
+    boolean robinHood = options.probing() == Probing.ROBIN_HOOD;
+    int capacity = arr.capacity();
+    int slot = homeInt(key, capacity);
+    for (int probes = 0; probes < capacity; probes++) {
+      int state = arr.intAt(slot, 0);
+      if (state == EMPTY)
+        return -1;
+      if (state == FULL) {
+        int k = arr.intAt(slot, 4);
+        if (k == key)
+          return slot;
+        if (robinHood && Math.floorMod(slot - homeInt(k, capacity), capacity) < probes)
+          return -1;
+      }
+      slot = (slot + 1) % capacity;
+    }
+    return -1;
+  }
+
+  private int homeInt(int key, int capacity) {
+    return Math.floorMod(Math.abs(intHash.hashInt(key)), capacity);
+  }
+
+  /**
+   * Value of an int key read with {@code reader}, or decoded whole if it is
+   * {@code null}.
+   */
+  private <R> R lookupInt(int key, FieldReader<R> reader) {
+    int slot = findInt(entries, key);
+    if (slot >= 0)
+      return valueAt(entries, slot, reader);
+    var old = draining;
+    if (old != null && (slot = findInt(old, key)) >= drainCursor)
+      return valueAt(old, slot, reader);
+    return null;
+  }
+
+  private Boolean hasInt(int key) {
+    if (findInt(entries, key) >= 0)
+      return true;
+    var old = draining;
+    return old != null && findInt(old, key) >= drainCursor;
+  }
+
+  /**
+   * Decodes the value of a live slot, leaving its key alone.
+   */
+  private V valueAt(DiskArray<TableHeader, Entry<K, V>> arr, int slot) {
+    return arr.readAt(slot, valueOffset(), entrySerializer.valCodec);
+  }
+
+  /**
+   * Reads the value of a live slot with {@code reader}, or decodes it whole if
+   * that is {@code null}.
+   */
+  @SuppressWarnings("unchecked")
+  private <R> R valueAt(DiskArray<TableHeader, Entry<K, V>> arr, int slot, FieldReader<R> reader) {
+    if (reader == null)
+      return (R) valueAt(arr, slot);
+    return arr.readAt(slot, valueOffset(), reader);
+  }
+
+  private int valueOffset() {
+    return 4 + entrySerializer.keyCodec.fixedSize();
+  }
+
+  /**
+   * Linear probe in the array being drained. Slots behind the drain cursor were
+   * already copied to the new array, which is authoritative for them.
+   */
+  private int findOld(DiskArray<TableHeader, Entry<K, V>> old, K key) {
+    int slot = find(old, key);
+    return slot >= drainCursor ? slot : -1;
+  }
+
+  /**
+   * Stores an entry whose key is absent from {@code arr}. Callers must have
+   * checked that the load factor leaves room.
+   */
+  private void place(DiskArray<TableHeader, Entry<K, V>> arr, Entry<K, V> e) {
+    if (options.probing() == Probing.LINEAR) {
+      int slot = freeSlot(arr, e.getKey());
+      if (store(arr, slot, e).state == USED)
+        tombstones--;
+      return;
+    }
+    int capacity = arr.capacity();
+    int slot = home(e.getKey(), capacity);
+    for (int dist = 0;; dist++) {
+      Entry<K, V> cur = arr.get(slot);
+      if (cur.state != FULL) {
+        store(arr, slot, e);
+        return;
+      }
+      // Take the slot from an entry that is closer to its home than we are
+      // and carry that one on instead
+      int curDist = distance(cur.getKey(), slot, capacity);
+      if (curDist < dist) {
+        store(arr, slot, e);
+        e = cur;
+        dist = curDist;
+      }
+      slot = (slot + 1) % capacity;
+    }
+  }
+
+  /**
+   * First reusable slot (tombstone or empty) along the probe chain of
+   * {@code key}. Callers must have checked the key is absent and that the load
+   * factor leaves room.
+   */
+  private int freeSlot(DiskArray<TableHeader, Entry<K, V>> arr, K key) {
+    int capacity = arr.capacity();
+    int slot = home(key, capacity);
+    while (arr.get(slot).state == FULL)
+      slot = (slot + 1) % capacity;
+    return slot;
+  }
+
+  /**
+   * Resizes the table to {@code newCapacity} the way its {@link RehashMode}
+   * asks for.
+   */
+  private void grow(int newCapacity) throws IOException {
+    // Never stack two migrations: drain the current one first
+    finishMigration();
+    rehashes++;
+    if (options.rehashMode() == RehashMode.INCREMENTAL)
+      startMigration(newCapacity);
+    else if (wal != null)
+      rehashCopy(newCapacity);
+    else
+      rehash(newCapacity);
+  }
+
+  /**
+   * Grows the backing array and re-inserts every live entry at its new home.
+   */
+  private void rehash(int newCapacity) throws IOException {
+    long start = System.nanoTime();
+    List<Entry<K, V>> live = new ArrayList<>();
+    forEachLive(entries, live::add);
+
+    entries.grow(newCapacity);
+    for (int i = 0; i < newCapacity; i++)
+      store(entries, i, new Entry<>());
+    tombstones = 0;
+    for (Entry<K, V> e : live)
+      place(entries, e);
+    rehashNanos += System.nanoTime() - start;
+  }
+
+  /**
+   * Stop-the-world rehash for logged tables: the in-place {@link #rehash} wipes
+   * slots whose only durable copy may be the file itself, so the entries are
+   * copied into a new file that replaces the old one only once it is on disk.
+   */
+  private void rehashCopy(int newCapacity) throws IOException {
+    startMigration(newCapacity);
+    finishMigration();
+  }
+
+  // ---- write-ahead log ----
+
+  @FunctionalInterface
+  private interface LogAppend {
+    long append() throws IOException;
+  }
+
+  private Path walPath() {
+    return Path.of(path + ".wal");
+  }
+
+  /**
+   * Appends a record for a mutation that was just applied and checkpoints if
+   * the log got too long. The record is synced once the write lock is
+   * released (see {@link #write}). Caller holds the write lock.
+   */
+  private void log(LogAppend append) {
+    if (wal == null)
+      return;
+    try {
+      unsynced = append.append();
+      if (wal.size() >= CHECKPOINT_BYTES)
+        flush();
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    }
+  }
+
+  private void logPut(K key, V value) {
+    log(() -> wal.appendPut(key, value, hdr().serialCount()));
+  }
+
+  /**
+   * Waits (outside the table lock) until the record at {@code lsn} is on disk.
+   */
+  private void sync(long lsn) {
+    if (lsn == 0)
+      return;
+    try {
+      wal.sync(lsn);
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    }
+  }
+
+  /**
+   * Forces the table to disk and empties the log. During a migration the old
+   * slots already copied are only tombstoned here, after their copies are
+   * durable, so a crash can never lose both. Caller holds the write lock.
+   */
+  private void flush() throws IOException {
+    if (pending != null)
+      entries.setHeader(pending);
+    entries.force();
+    if (draining != null) {
+      for (int i = 0; i < drainCursor; i++)
+        if (draining.get(i).state == FULL)
+          tombstone(draining, i);
+      draining.force();
+    }
+    wal.reset();
+  }
+
+  /**
+   * Replays the records left in the log by a crash, then recounts the live
+   * entries (the mapping may have reached the disk only in part) and
+   * checkpoints.
+   */
+  private void recover() throws IOException {
+    int[] maxSerial = { entries.header().serialCount() };
+    int replayed = wal.replay(new WriteAheadLog.Replay<>() {
+      @Override
+      public void put(K key, V value, int serial) {
+        if (!overwrite(key, value))
+          insert(key, value);
+        migrate();
+        maxSerial[0] = Math.max(maxSerial[0], serial);
+      }
+
+      @Override
+      public void remove(K key) {
+        delete(key);
+        migrate();
+      }
+
+      @Override
+      public void clear() {
+        try {
+          wipe();
+        } catch (IOException ioe) {
+          throw new UncheckedIOException(ioe);
+        }
+      }
+    });
+    if (replayed == 0)
+      return;
+
+    int[] live = { 0 };
+    forEachLive(entries, e -> live[0]++);
+    if (draining != null)
+      forEachLive(draining, drainCursor, e -> {
+        // Copied before the crash but not tombstoned yet
+        if (find(entries, e.getKey()) < 0)
+          live[0]++;
+      });
+    entries.setHeader(new TableHeader(live[0], maxSerial[0]));
+    recovered = true;
+    flush();
+  }
+
+  // ---- incremental rehash ----
+
+  private Path nextPath() {
+    return Path.of(path + ".next");
+  }
+
+  /**
+   * Opens an empty array of {@code newCapacity} next to the table, carries the
+   * header over and starts draining the current array into it.
+   */
+  private void startMigration(int newCapacity) throws IOException {
+    long start = System.nanoTime();
+    Path next = nextPath();
+    Files.deleteIfExists(next);
+    var fresh = new DiskArray<TableHeader, Entry<K, V>>(next, newCapacity, new TableHeaderSerializer(), entrySerializer,
+        options.backend());
+    fresh.setHeader(hdr());
+    draining = entries;
+    entries = fresh;
+    drainCursor = 0;
+    tombstones = 0;
+    rehashNanos += System.nanoTime() - start;
+  }
+
+  /**
+   * Moves the next batch of old slots into the new array. Migrated slots are
+   * tombstoned in the old array, so a migration resumed after a crash never
+   * resurrects a key that was removed from the new array. With a log that
+   * tombstone waits for the next checkpoint (see {@link #flush}), and removals
+   * since then are in the log. Caller holds the write lock.
+   */
+  private void migrate() {
+    if (draining == null)
+      return;
+    long start = System.nanoTime();
+    int end = Math.min(draining.capacity(), drainCursor + options.migrationBatch());
+    for (; drainCursor < end; drainCursor++) {
+      Entry<K, V> e = draining.get(drainCursor);
+      if (e.state != FULL)
+        continue;
+      // A key already in the new array was rewritten after the old copy
+      if (find(entries, e.getKey()) < 0)
+        place(entries, e);
+      if (wal == null)
+        tombstone(draining, drainCursor);
+    }
+    try {
+      if (drainCursor == draining.capacity())
+        completeMigration();
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    } finally {
+      rehashNanos += System.nanoTime() - start;
+    }
+  }
+
+  private void finishMigration() throws IOException {
+    while (draining != null) {
+      migrate();
+    }
+  }
+
+  /**
+   * Retires the drained array and puts the new file in its place.
+   */
+  private void completeMigration() throws IOException {
+    if (wal != null)
+      entries.force();
+    for (Snapshot c : cursors)
+      c.preserveAll(draining);
+    draining.close();
+    draining = null;
+    // The open mapping follows the file across the rename
+    Files.move(nextPath(), path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
   }
-}
\ No newline at end of file
+}
@@ -8,17 +8,76 @@ import java.nio.file.*;
 import store.online.db.FixedSizeSerializer.*;
 
 /**
- * 
+ * Fixed-width array stored in a memory-mapped file.
+ * <p>
+ * Layout: {@code [capacity : 4 bytes][header][element 0][element 1]...}. The
+ * prelude and header get their own small mapping; elements are mapped in
+ * segments of whole elements (at most 1 GiB each by default), addressed with
+ * long file offsets. That lifts the 2 GB limit of a single
+ * {@link MappedByteBuffer}, and growing only maps the new tail instead of
+ * remapping the whole file.
+ * </p>
+ * <p>
+ * How regions are mapped is chosen per array with {@link Backend}.
+ * </p>
+ *
  * @author Alfredo
- * 
+ *
  * @param <E> element type
  */
 public final class DiskArray<H, E> implements AutoCloseable {
 
   private static final int PRELUDE = 4; // [capacity : 4 bytes]
 
-  private MappedByteBuffer buf;
+  /** Default upper bound for the bytes covered by one element segment. */
+  public static final int DEFAULT_SEGMENT_BYTES = 1 << 30;
+
+  /**
+   * How the file is mapped into memory.
+   */
+  public enum Backend {
+    /**
+     * {@link MappedByteBuffer}s. Replaced and closed mappings stay in the address
+     * space until the GC collects their buffers.
+     */
+    MAPPED_BUFFER,
+    /**
+     * {@code MemorySegment}s, unmapped as soon as growth replaces them or the
+     * array is closed. Needs {@code --enable-preview} on Java 21.
+     */
+    MEMORY_SEGMENT
+  }
+
+  /**
+   * Maps and unmaps regions of the backing file.
+   */
+  interface Mapper {
+    ByteBuffer map(FileChannel ch, long offset, long bytes) throws IOException;
+
+    void unmap(ByteBuffer region);
+  }
+
+  private static final Mapper BUFFERS = new Mapper() {
+    @Override
+    public ByteBuffer map(FileChannel ch, long offset, long bytes) throws IOException {
+      return ch.map(FileChannel.MapMode.READ_WRITE, offset, bytes);
+    }
+
+    @Override
+    public void unmap(ByteBuffer region) {
+      // Left to the GC
+    }
+  };
+
+  private ByteBuffer buf; // prelude + header
+  /**
+   * Element segments. Replaced (never mutated in place) on growth, so readers
+   * holding the old array keep valid mappings until they are unmapped.
+   */
+  private ByteBuffer[] segments;
+  private final int slotsPerSegment;
   private final FileChannel ch;
+  private final Mapper mapper;
   private final FixedElementSerializer<E> blockSerializer;
   private final FixedElementSerializer<H> headerSerializer;
 
@@ -26,14 +85,46 @@ public final class DiskArray<H, E> implements AutoCloseable {
       int initialCapacity,
       FixedElementSerializer<H> headerSerializer,
       FixedElementSerializer<E> blockSerializer) throws IOException {
+    this(path, initialCapacity, headerSerializer, blockSerializer, DEFAULT_SEGMENT_BYTES, Backend.MAPPED_BUFFER);
+  }
+
+  public DiskArray(Path path,
+      int initialCapacity,
+      FixedElementSerializer<H> headerSerializer,
+      FixedElementSerializer<E> blockSerializer,
+      Backend backend) throws IOException {
+    this(path, initialCapacity, headerSerializer, blockSerializer, DEFAULT_SEGMENT_BYTES, backend);
+  }
+
+  public DiskArray(Path path,
+      int initialCapacity,
+      FixedElementSerializer<H> headerSerializer,
+      FixedElementSerializer<E> blockSerializer,
+      int segmentBytes) throws IOException {
+    this(path, initialCapacity, headerSerializer, blockSerializer, segmentBytes, Backend.MAPPED_BUFFER);
+  }
+
+  public DiskArray(Path path,
+      int initialCapacity,
+      FixedElementSerializer<H> headerSerializer,
+      FixedElementSerializer<E> blockSerializer,
+      int segmentBytes,
+      Backend backend) throws IOException {
     if (initialCapacity < 1)
       throw new IllegalArgumentException("Capacity must be >= 1");
     if (blockSerializer == null)
       throw new IllegalArgumentException("Element codec is required");
+    if (segmentBytes < blockSerializer.fixedSize())
+      throw new IllegalArgumentException("Segment must hold at least one element");
+    if (backend == null)
+      throw new IllegalArgumentException("Backend cannot be null");
 
     // Initialize and open file channel to map memory
     this.blockSerializer = blockSerializer;
     this.headerSerializer = headerSerializer;
+    this.slotsPerSegment = segmentBytes / blockSerializer.fixedSize();
+    this.segments = new ByteBuffer[0];
+    this.mapper = backend == Backend.MEMORY_SEGMENT ? new SegmentMapper() : BUFFERS;
 
     final boolean existed = Files.exists(path);
 
@@ -43,21 +134,15 @@ public final class DiskArray<H, E> implements AutoCloseable {
         StandardOpenOption.READ,
         StandardOpenOption.WRITE);
 
-    if (!existed || ch.size() < PRELUDE) {
-      long bytes = dataStart() + (long) initialCapacity * blockSerializer.fixedSize();
-      ch.truncate(bytes);
-      buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
-      buf.order(ByteOrder.LITTLE_ENDIAN);
+    buf = mapper.map(ch, 0, dataStart());
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+
+    if (!existed || buf.getInt(0) < 1) {
+      mapSegments(initialCapacity);
       buf.putInt(0, initialCapacity);
       return;
     }
-
-    buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, dataStart());
-    buf.order(ByteOrder.LITTLE_ENDIAN);
-
-    long bytes = dataStart() + (long) buf.getInt(0) * blockSerializer.fixedSize();
-    buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
-    buf.order(ByteOrder.LITTLE_ENDIAN);
+    mapSegments(buf.getInt(0));
   }
 
   /**
@@ -69,7 +154,7 @@ public final class DiskArray<H, E> implements AutoCloseable {
 
   /**
    * Read the header (if present).
-   * 
+   *
    * @return header
    */
   public H header() {
@@ -80,7 +165,7 @@ public final class DiskArray<H, E> implements AutoCloseable {
 
   /**
    * Overwrite the header (if present).
-   * 
+   *
    * @param hdr
    */
   public void setHeader(H hdr) {
@@ -98,8 +183,34 @@ public final class DiskArray<H, E> implements AutoCloseable {
    */
   public E get(int index) {
     check(index);
-    int pos = dataStart() + index * blockSerializer.fixedSize();
-    return blockSerializer.read(buf, pos);
+    return blockSerializer.read(segments[index / slotsPerSegment], offsetInSegment(index));
+  }
+
+  /**
+   * Reads an int field of an element (such as its state word or an int key)
+   * without decoding the rest of it.
+   *
+   * @param index  position in [0, size())
+   * @param offset byte offset of the field within the element
+   * @return int stored at that field
+   */
+  int intAt(int index, int offset) {
+    check(index);
+    return segments[index / slotsPerSegment].getInt(offsetInSegment(index) + offset);
+  }
+
+  /**
+   * Decodes one field of an element with its own codec (or reader), leaving
+   * the other fields alone.
+   *
+   * @param index  position in [0, size())
+   * @param offset byte offset of the field within the element
+   * @param reader codec of the field
+   * @return decoded field
+   */
+  <T> T readAt(int index, int offset, FieldReader<T> reader) {
+    check(index);
+    return reader.read(segments[index / slotsPerSegment], offsetInSegment(index) + offset);
   }
 
   /**
@@ -112,35 +223,57 @@ public final class DiskArray<H, E> implements AutoCloseable {
    */
   public E set(int index, E value) {
     check(index);
-    int pos = dataStart() + index * blockSerializer.fixedSize();
-    E prev = blockSerializer.read(buf, pos);
-    blockSerializer.write(buf, pos, value);
+    ByteBuffer seg = segments[index / slotsPerSegment];
+    int pos = offsetInSegment(index);
+    E prev = blockSerializer.read(seg, pos);
+    blockSerializer.write(seg, pos, value);
     return prev;
   }
 
   /**
    * Grows the array by a given capacity
-   * 
+   *
    * @param capacity new capacity to expand the array to
    * @throws IOException If fails reallocation
    */
   public void grow(int capacity) throws IOException {
-    long newBytes = dataStart() + (long) capacity * blockSerializer.fixedSize();
-    ch.truncate(newBytes);
-    ch.force(true);
-    buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, newBytes);
-    buf.order(ByteOrder.LITTLE_ENDIAN);
+    mapSegments(capacity);
     buf.putInt(0, capacity);
   }
 
   /**
-   * Closes the underlying channel/mapping resources.
+   * Writes every dirty page of the mapping back to the file (fsync), so the
+   * array survives a crash in its current state.
+   */
+  public void force() {
+    for (ByteBuffer s : segments)
+      ((MappedByteBuffer) s).force();
+    ((MappedByteBuffer) buf).force();
+  }
+
+  /**
+   * @return bytes of the file currently mapped (prelude, header and elements)
+   */
+  public long mappedBytes() {
+    return dataStart() + (long) capacity() * blockSerializer.fixedSize();
+  }
+
+  /**
+   * Closes the underlying channel/mapping resources. With
+   * {@link Backend#MEMORY_SEGMENT} the mappings are released right away and
+   * later access fails with {@link IllegalStateException}.
    *
    * @throws IOException if closing the backing file/channel fails
    */
   @Override
   public void close() throws IOException {
-    ch.close();
+    try {
+      for (ByteBuffer s : segments)
+        mapper.unmap(s);
+      mapper.unmap(buf);
+    } finally {
+      ch.close();
+    }
   }
 
   // ---- internals ----
@@ -148,6 +281,37 @@ public final class DiskArray<H, E> implements AutoCloseable {
     return PRELUDE + (headerSerializer != null ? headerSerializer.fixedSize() : 0);
   }
 
+  private int offsetInSegment(int index) {
+    return (index % slotsPerSegment) * blockSerializer.fixedSize();
+  }
+
+  /**
+   * Maps segments so that {@code capacity} elements are covered. Full segments
+   * already mapped are reused; only a partial last segment is remapped at its
+   * new length, and the mapping it replaces is released. Mapping past the end
+   * of the file extends it.
+   */
+  private void mapSegments(int capacity) throws IOException {
+    int count = (int) (((long) capacity + slotsPerSegment - 1) / slotsPerSegment);
+    ByteBuffer[] next = new ByteBuffer[count];
+    for (int s = 0; s < count; s++) {
+      int slots = (int) Math.min(slotsPerSegment, (long) capacity - (long) s * slotsPerSegment);
+      long bytes = (long) slots * blockSerializer.fixedSize();
+      if (s < segments.length && segments[s].capacity() == bytes) {
+        next[s] = segments[s];
+        continue;
+      }
+      long offset = dataStart() + (long) s * slotsPerSegment * blockSerializer.fixedSize();
+      next[s] = mapper.map(ch, offset, bytes);
+      next[s].order(ByteOrder.LITTLE_ENDIAN);
+    }
+    ByteBuffer[] old = segments;
+    segments = next;
+    for (int s = 0; s < old.length; s++)
+      if (s >= next.length || next[s] != old[s])
+        mapper.unmap(old[s]);
+  }
+
   private void check(int index) {
     if (index < 0 || index >= capacity())
       throw new IndexOutOfBoundsException(index + " of " + capacity());
@@ -0,0 +1,169 @@
+package store.online.db;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Test on the raw bytes of a fixed-width, zero-padded UTF-8 field (as a
+ * {@link FixedSizeSerializer.StringSerializer} writes it) inside a stored
+ * element, so a scan can reject rows without building a String for each.
+ * <p>
+ * The field is copied into a per-thread scratch array with one bulk get and
+ * compared there; {@link Arrays#equals(byte[], int, int, byte[], int, int)}
+ * is a vectorized intrinsic in HotSpot. Results are those of decoding the field
+ * and comparing Strings.
+ * </p>
+ *
+ * @author Alfredo
+ */
+public final class FieldMatch {
+
+  private enum Op {
+    EQUAL, PREFIX, CONTAINS_IGNORE_CASE
+  }
+
+  private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+  private final Op op;
+  private final int offset;
+  private final int width;
+  private final String text;
+  private final byte[] pattern;
+  private final boolean asciiPattern;
+
+  private FieldMatch(Op op, int offset, int width, String text) {
+    if (offset < 0 || width < 1)
+      throw new IllegalArgumentException("Field must have a non-negative offset and a positive width");
+    if (text == null)
+      throw new IllegalArgumentException("Text cannot be null");
+    this.op = op;
+    this.offset = offset;
+    this.width = width;
+    this.text = text;
+    this.pattern = text.getBytes(StandardCharsets.UTF_8);
+    this.asciiPattern = isAscii(pattern);
+  }
+
+  /**
+   * Field equal to {@code value}.
+   *
+   * @param offset byte offset of the field within the element
+   * @param width  field width in bytes
+   * @param value  expected value
+   */
+  public static FieldMatch equalTo(int offset, int width, String value) {
+    return new FieldMatch(Op.EQUAL, offset, width, value);
+  }
+
+  /**
+   * Field starting with {@code prefix}.
+   *
+   * @param offset byte offset of the field within the element
+   * @param width  field width in bytes
+   * @param prefix expected prefix
+   */
+  public static FieldMatch startsWith(int offset, int width, String prefix) {
+    return new FieldMatch(Op.PREFIX, offset, width, prefix);
+  }
+
+  /**
+   * Field whose {@link String#toLowerCase(Locale) lower-cased} value contains
+   * {@code needle}, itself lower-cased. An ASCII needle is searched byte by
+   * byte with ASCII case folding; a non-ASCII one needs the field decoded.
+   *
+   * @param offset byte offset of the field within the element
+   * @param width  field width in bytes
+   * @param needle text to look for
+   */
+  public static FieldMatch containsIgnoreCase(int offset, int width, String needle) {
+    return new FieldMatch(Op.CONTAINS_IGNORE_CASE, offset, width, needle.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * @param buf mapped buffer
+   * @param pos absolute byte offset where the element starts
+   * @return whether the field of the element at {@code pos} matches
+   */
+  public boolean test(ByteBuffer buf, int pos) {
+    int p = pattern.length;
+    byte[] b = scratch();
+    switch (op) {
+      case EQUAL:
+        if (p > width)
+          return false; // longer than anything the field can hold
+        // The value, then padding unless it fills the field
+        buf.get(pos + offset, b, 0, Math.min(width, p + 1));
+        return Arrays.equals(b, 0, p, pattern, 0, p) && (p == width || b[p] == 0);
+      case PREFIX:
+        if (p > width)
+          return false;
+        buf.get(pos + offset, b, 0, p);
+        return Arrays.equals(b, 0, p, pattern, 0, p);
+      default:
+        buf.get(pos + offset, b, 0, width);
+        return contains(b);
+    }
+  }
+
+  // ---- internals ----
+
+  /**
+   * Searches the (lower-cased) pattern in a field copied to {@code b}. With an
+   * ASCII pattern only ASCII bytes can match, and folding them is all
+   * {@link String#toLowerCase(Locale)} does to them; the only other characters it
+   * lowers into ASCII are the Kelvin sign (E2 84 AA) and the dotted capital I
+   * (C4 B0), so fields with those lead bytes, like non-ASCII patterns, are
+   * decoded instead.
+   */
+  private boolean contains(byte[] b) {
+    int n = 0;
+    boolean bytewise = asciiPattern;
+    for (byte c; n < width && (c = b[n]) != 0; n++)
+      if (c == (byte) 0xE2 || c == (byte) 0xC4)
+        bytewise = false;
+    if (!bytewise)
+      return new String(b, 0, n, StandardCharsets.UTF_8).toLowerCase(Locale.ROOT).contains(text);
+
+    int p = pattern.length;
+    if (p == 0)
+      return true;
+    byte first = pattern[0];
+    for (int i = 0, last = n - p; i <= last; i++) {
+      if (lower(b[i]) != first)
+        continue;
+      int j = 1;
+      while (j < p && lower(b[i + j]) == pattern[j])
+        j++;
+      if (j == p)
+        return true;
+    }
+    return false;
+  }
+
+  private byte[] scratch() {
+    byte[] b = SCRATCH.get();
+    if (b.length < width) {
+      b = new byte[width];
+      SCRATCH.set(b);
+    }
+    return b;
+  }
+
+  private static byte lower(byte c) {
+    return c >= 'A' && c <= 'Z' ? (byte) (c + ('a' - 'A')) : c;
+  }
+
+  private static boolean isAscii(byte[] b) {
+    for (byte c : b)
+      if (c < 0)
+        return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return op + "[" + offset + "+" + width + "] " + text;
+  }
+}
@@ -1,6 +1,7 @@
 package store.online.db;
 
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class FixedSizeSerializer {
   /**
@@ -11,7 +12,7 @@ public class FixedSizeSerializer {
    * 
    * @author Alfredo
    */
-  public interface FixedElementSerializer<E> {
+  public interface FixedElementSerializer<E> extends FieldReader<E> {
     /**
      * @return the exact number of bytes used per element
      */
@@ -24,7 +25,7 @@ public class FixedSizeSerializer {
      * @param pos   absolute byte offset where the element starts
      * @param value element to encode
      */
-    public void write(MappedByteBuffer buf, int pos, E value);
+    public void write(ByteBuffer buf, int pos, E value);
 
     /**
      * Reads one element from absolute position {@code pos} in the mapped buffer.
@@ -33,50 +34,125 @@ public class FixedSizeSerializer {
      * @param pos absolute byte offset where the element starts
      * @return decoded element
      */
-    public E read(MappedByteBuffer buf, int pos);
+    @Override
+    public E read(ByteBuffer buf, int pos);
   }
 
   /**
-   * 
+   * Reads whatever it needs of an element stored at a fixed position, e.g. a
+   * single field, or a view that decodes fields on demand. The buffer is only
+   * valid during the call.
+   *
    * @author Alfredo
    */
-  public static final class IntSerializer implements FixedElementSerializer<Integer> {
-    public int fixedSize() {
+  @FunctionalInterface
+  public interface FieldReader<T> {
+    /**
+     * @param buf mapped buffer
+     * @param pos absolute byte offset where the element starts
+     * @return what was read
+     */
+    public T read(ByteBuffer buf, int pos);
+  }
+
+  /**
+   * Codec of a 4-byte int field that can also be read and written without
+   * boxing. Tables probing on such keys compare them in place.
+   *
+   * @author Alfredo
+   */
+  public interface IntElementSerializer extends FixedElementSerializer<Integer> {
+    public int readInt(ByteBuffer buf, int pos);
+
+    public void writeInt(ByteBuffer buf, int pos, int value);
+
+    @Override
+    public default int fixedSize() {
       return 4;
     }
 
-    public void write(MappedByteBuffer buf, int pos, Integer v) {
-      buf.putInt(pos, v);
+    @Override
+    public default Integer read(ByteBuffer buf, int pos) {
+      return readInt(buf, pos);
     }
 
-    public Integer read(MappedByteBuffer buf, int pos) {
-      return buf.getInt(pos);
+    @Override
+    public default void write(ByteBuffer buf, int pos, Integer value) {
+      writeInt(buf, pos, value);
     }
   }
 
   /**
-   * 
+   * Codec of an 8-byte long field that can also be read and written without
+   * boxing.
+   *
    * @author Alfredo
    */
-  public static final class LongSerializer implements FixedElementSerializer<Long> {
-    public int fixedSize() {
+  public interface LongElementSerializer extends FixedElementSerializer<Long> {
+    public long readLong(ByteBuffer buf, int pos);
+
+    public void writeLong(ByteBuffer buf, int pos, long value);
+
+    @Override
+    public default int fixedSize() {
       return 8;
     }
 
-    public void write(MappedByteBuffer buf, int pos, Long v) {
-      buf.putLong(pos, v);
+    @Override
+    public default Long read(ByteBuffer buf, int pos) {
+      return readLong(buf, pos);
+    }
+
+    @Override
+    public default void write(ByteBuffer buf, int pos, Long value) {
+      writeLong(buf, pos, value);
     }
+  }
 
-    public Long read(MappedByteBuffer buf, int pos) {
+  /**
+   * 
+   * @author Alfredo
+   */
+  public static final class IntSerializer implements IntElementSerializer {
+    public int readInt(ByteBuffer buf, int pos) {
+      return buf.getInt(pos);
+    }
+
+    public void writeInt(ByteBuffer buf, int pos, int v) {
+      buf.putInt(pos, v);
+    }
+  }
+
+  /**
+   * 
+   * @author Alfredo
+   */
+  public static final class LongSerializer implements LongElementSerializer {
+    public long readLong(ByteBuffer buf, int pos) {
       return buf.getLong(pos);
     }
+
+    public void writeLong(ByteBuffer buf, int pos, long v) {
+      buf.putLong(pos, v);
+    }
   }
 
   /**
+   * Fixed-width, zero-padded UTF-8 string. Strings longer than the width are
+   * truncated; reading stops at the first zero byte.
+   * <p>
+   * Bytes move with bulk absolute get/put instead of one call per byte. Reads go
+   * through a per-thread scratch array, so the only allocation is the resulting
+   * String; the JDK's UTF-8 codec already takes an ASCII fast path on both
+   * sides.
+   * </p>
    * 
    * @author Alfredo
    */
   public static final class StringSerializer implements FixedElementSerializer<String> {
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+    private static final byte[] ZEROS = new byte[256];
+
     private final int width;
 
     public StringSerializer(int width) {
@@ -87,23 +163,25 @@ public class FixedSizeSerializer {
       return width;
     }
 
-    public void write(MappedByteBuffer buf, int pos, String s) {
-      byte[] b = s.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+    public void write(ByteBuffer buf, int pos, String s) {
+      byte[] b = s.getBytes(StandardCharsets.UTF_8);
       int n = Math.min(b.length, width);
-      for (int i = 0; i < n; i++)
-        buf.put(pos + i, b[i]);
-      for (int i = n; i < width; i++)
-        buf.put(pos + i, (byte) 0);
+      buf.put(pos, b, 0, n);
+      for (int off = n; off < width; off += ZEROS.length)
+        buf.put(pos + off, ZEROS, 0, Math.min(ZEROS.length, width - off));
     }
 
-    public String read(MappedByteBuffer buf, int pos) {
-      byte[] b = new byte[width];
-      for (int i = 0; i < width; i++)
-        b[i] = buf.get(pos + i);
+    public String read(ByteBuffer buf, int pos) {
+      byte[] b = SCRATCH.get();
+      if (b.length < width) {
+        b = new byte[width];
+        SCRATCH.set(b);
+      }
+      buf.get(pos, b, 0, width);
       int n = 0;
       while (n < width && b[n] != 0)
         n++;
-      return new String(b, 0, n, java.nio.charset.StandardCharsets.UTF_8);
+      return new String(b, 0, n, StandardCharsets.UTF_8);
     }
   }
 }
@@ -0,0 +1,134 @@
+package store.online.db;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Well-mixed {@link HashFunction}s built on MurmurHash3 (x86, 32-bit).
+ * <p>
+ * Tables pick the home slot as the hash modulo their capacity, which is
+ * whatever size they were created or reserved at, so a hash that is regular
+ * in any way shows up in the slots: the identity hash and
+ * {@link String#hashCode()} map strided ids and keys sharing a suffix onto a
+ * few residues whenever the stride shares a factor with the capacity, and
+ * linear probing turns those into long runs. These functions spread every
+ * input bit over the whole output first.
+ * </p>
+ * <p>
+ * The hash is not stored with a table: switching an existing table to one of
+ * these means copying it into a new file.
+ * </p>
+ *
+ * @author Alfredo
+ */
+public final class Hashes {
+
+  private static final int C1 = 0xcc9e2d51;
+  private static final int C2 = 0x1b873593;
+
+  /** Murmur3 finalizer over an int key. */
+  public static final IntHashFunction MURMUR_INT = Hashes::mix32;
+
+  /** Murmur3 finalizer over a long key, folded to 32 bits. */
+  public static final HashFunction<Long> MURMUR_LONG = k -> mix64(k);
+
+  /**
+   * Murmur3 over the UTF-8 bytes of a string, i.e. the bytes a
+   * {@link FixedSizeSerializer.StringSerializer} stores. ASCII strings are
+   * hashed straight from their chars without encoding them.
+   */
+  public static final HashFunction<String> MURMUR_UTF8 = s -> murmur3(s, 0);
+
+  private Hashes() {
+  }
+
+  /**
+   * Murmur3 32-bit finalizer: every input bit flips each output bit with
+   * probability close to 1/2.
+   */
+  public static int mix32(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  /**
+   * Murmur3 64-bit finalizer, folded to 32 bits.
+   */
+  public static int mix64(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  /**
+   * MurmurHash3 x86 32-bit of {@code len} bytes of {@code data} from
+   * {@code off}.
+   */
+  public static int murmur3(byte[] data, int off, int len, int seed) {
+    int h = seed;
+    int end = off + (len & ~3);
+    for (int i = off; i < end; i += 4) {
+      int k = (data[i] & 0xff) | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff) << 16 | data[i + 3] << 24;
+      h = round(h, k);
+    }
+    // Tail bytes, little-endian as in the reference code
+    int k = 0;
+    for (int j = off + len - 1; j >= end; j--)
+      k = k << 8 | (data[j] & 0xff);
+    if (end < off + len)
+      h ^= scramble(k);
+    return mix32(h ^ len);
+  }
+
+  /**
+   * MurmurHash3 x86 32-bit of the UTF-8 encoding of {@code s}. Equal to
+   * hashing {@code s.getBytes(UTF_8)}, but ASCII strings (one byte per char)
+   * are read in place.
+   */
+  public static int murmur3(String s, int seed) {
+    int n = s.length();
+    int h = seed;
+    int i = 0;
+    for (; i + 4 <= n; i += 4) {
+      char c0 = s.charAt(i), c1 = s.charAt(i + 1), c2 = s.charAt(i + 2), c3 = s.charAt(i + 3);
+      if ((c0 | c1 | c2 | c3) >= 0x80)
+        return encoded(s, seed);
+      h = round(h, c0 | c1 << 8 | c2 << 16 | c3 << 24);
+    }
+    int k = 0;
+    for (int j = n - 1; j >= i; j--) {
+      char c = s.charAt(j);
+      if (c >= 0x80)
+        return encoded(s, seed);
+      k = k << 8 | c;
+    }
+    if (i < n)
+      h ^= scramble(k);
+    return mix32(h ^ n);
+  }
+
+  // ---- internals ----
+
+  private static int encoded(String s, int seed) {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    return murmur3(b, 0, b.length, seed);
+  }
+
+  private static int scramble(int k) {
+    k *= C1;
+    k = Integer.rotateLeft(k, 15);
+    return k * C2;
+  }
+
+  private static int round(int h, int k) {
+    h ^= scramble(k);
+    h = Integer.rotateLeft(h, 13);
+    return h * 5 + 0xe6546b64;
+  }
+}
@@ -0,0 +1,21 @@
+package store.online.db;
+
+/**
+ * {@link HashFunction} over int keys that also takes them unboxed, for the
+ * lookups of an {@link IntKeyDBTableMap}.
+ */
+@FunctionalInterface
+public interface IntHashFunction extends HashFunction<Integer> {
+  /**
+   * Hashes the given key
+   * 
+   * @param key
+   * @return Hashed key as integer
+   */
+  int hashInt(int key);
+
+  @Override
+  default int hashCode(Integer key) {
+    return hashInt(key);
+  }
+}
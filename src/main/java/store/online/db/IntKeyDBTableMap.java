@@ -0,0 +1,70 @@
+package store.online.db;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import store.online.db.FixedSizeSerializer.*;
+
+/**
+ * {@link DBTableMap} keyed by ints, with lookups that take the key unboxed.
+ * <p>
+ * {@link #getInt} and {@link #containsInt} hash the key with
+ * {@link IntHashFunction#hashInt} and compare it against the raw 4-byte key
+ * field of each probed slot, so a lookup allocates nothing but the value it
+ * returns ({@link #containsInt} not even that). Writes keep the boxed
+ * {@link DBTableMap} signatures: they already build an entry and, with a log,
+ * a record per call.
+ * </p>
+ * <p>
+ * The file layout is that of a {@code DBTableMap<Integer, V>} with an
+ * {@link IntSerializer} key codec, so either class opens the other's files.
+ * </p>
+ *
+ * @author Alfredo
+ *
+ * @param <V> value type
+ */
+public class IntKeyDBTableMap<V> extends DBTableMap<Integer, V> {
+
+  public IntKeyDBTableMap(Path path,
+      int initialCapacity,
+      FixedElementSerializer<V> valCodec,
+      IntHashFunction hashFunction) throws IOException {
+    this(path, initialCapacity, valCodec, hashFunction, Options.DEFAULTS);
+  }
+
+  public IntKeyDBTableMap(Path path,
+      int initialCapacity,
+      FixedElementSerializer<V> valCodec,
+      IntHashFunction hashFunction,
+      Options options) throws IOException {
+    super(path, initialCapacity, new EntrySerializer<>(new IntSerializer(), valCodec), hashFunction, options);
+  }
+
+  /**
+   * @param key key to look up
+   * @return the value stored under {@code key}, or {@code null} if absent
+   */
+  public V getInt(int key) {
+    return getByInt(key);
+  }
+
+  /**
+   * {@link #view} by an unboxed key.
+   *
+   * @param key    key to look up
+   * @param reader reads the value in place
+   * @return what {@code reader} returned, or {@code null} if the key is absent
+   */
+  public <R> R viewInt(int key, FieldReader<R> reader) {
+    return viewByInt(key, reader);
+  }
+
+  /**
+   * @param key key to look up
+   * @return whether {@code key} is present
+   */
+  public boolean containsInt(int key) {
+    return containsIntKey(key);
+  }
+}
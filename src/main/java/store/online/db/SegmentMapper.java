@@ -0,0 +1,52 @@
+package store.online.db;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.IdentityHashMap;
+
+/**
+ * {@link DiskArray.Mapper} backed by the Foreign Function &amp; Memory API.
+ * <p>
+ * Each region is a {@link MemorySegment} mapped in its own shared
+ * {@link Arena}, so it is unmapped the moment it is released instead of
+ * whenever the GC gets to the buffer. Access goes through a
+ * {@link MemorySegment#asByteBuffer() buffer view} of the segment, which keeps
+ * the serializers unchanged; after release that view throws
+ * {@link IllegalStateException} rather than touching unmapped memory.
+ * </p>
+ * <p>
+ * The API is a preview in Java 21: this is the only class compiled against it,
+ * and it is loaded (and so needs {@code --enable-preview}) only by tables that
+ * select {@link DiskArray.Backend#MEMORY_SEGMENT}.
+ * </p>
+ *
+ * @author Alfredo
+ */
+final class SegmentMapper implements DiskArray.Mapper {
+
+  private final IdentityHashMap<ByteBuffer, Arena> arenas = new IdentityHashMap<>();
+
+  @Override
+  public synchronized ByteBuffer map(FileChannel ch, long offset, long bytes) throws IOException {
+    Arena arena = Arena.ofShared();
+    try {
+      MemorySegment segment = ch.map(FileChannel.MapMode.READ_WRITE, offset, bytes, arena);
+      ByteBuffer region = segment.asByteBuffer();
+      arenas.put(region, arena);
+      return region;
+    } catch (IOException | RuntimeException e) {
+      arena.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public synchronized void unmap(ByteBuffer region) {
+    Arena arena = arenas.remove(region);
+    if (arena != null)
+      arena.close();
+  }
+}
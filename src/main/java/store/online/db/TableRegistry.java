@@ -0,0 +1,111 @@
+package store.online.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide pool of open {@link DBTableMap} handles (and other on-disk
+ * structures such as {@link DBIndex}), keyed by file path.
+ * <p>
+ * Opening a table costs a {@code FileChannel.open} plus two {@code mmap}
+ * calls, so tables are opened once and shared by every caller until they are
+ * released. Keeping a single handle per file also guarantees that all callers
+ * see the same mapping after a table grows.
+ * </p>
+ *
+ * @author Alfredo
+ */
+public final class TableRegistry implements AutoCloseable {
+
+  /**
+   * Opens a table the first time its path is requested.
+   */
+  @FunctionalInterface
+  public interface TableOpener<T extends Closeable> {
+    T open(Path path) throws IOException;
+  }
+
+  private static final TableRegistry SHARED = new TableRegistry();
+
+  private final ConcurrentHashMap<Path, Closeable> tables = new ConcurrentHashMap<>();
+
+  /**
+   * @return the registry shared by all repositories of this process
+   */
+  public static TableRegistry shared() {
+    return SHARED;
+  }
+
+  /**
+   * Returns the open table for {@code path}, opening it with {@code opener} if
+   * this is the first request for that file.
+   *
+   * @param path   table file
+   * @param opener how to open the table if it is not pooled yet
+   * @return the shared table handle
+   * @throws IOException if the table has to be opened and that fails
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends Closeable> T acquire(Path path, TableOpener<T> opener) throws IOException {
+    Path key = key(path);
+    T table = (T) tables.get(key);
+    if (table != null)
+      return table;
+    // Openers may acquire other tables (e.g. an index rebuilding from its base
+    // table), so this is a reentrant monitor rather than computeIfAbsent
+    synchronized (this) {
+      table = (T) tables.get(key);
+      if (table == null) {
+        table = opener.open(key);
+        tables.put(key, table);
+      }
+      return table;
+    }
+  }
+
+  /**
+   * @return the tables open right now, by absolute path
+   */
+  public Map<Path, Closeable> openTables() {
+    return Map.copyOf(tables);
+  }
+
+  /**
+   * Closes and forgets the table for {@code path}, if it is open.
+   *
+   * @param path table file
+   * @throws IOException if closing the table fails
+   */
+  public void release(Path path) throws IOException {
+    Closeable table = tables.remove(key(path));
+    if (table != null)
+      table.close();
+  }
+
+  /**
+   * Closes every pooled table.
+   *
+   * @throws IOException if closing any table fails (remaining tables are still
+   *                     closed)
+   */
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (Path p : tables.keySet()) {
+      try {
+        release(p);
+      } catch (IOException ioe) {
+        failure = ioe;
+      }
+    }
+    if (failure != null)
+      throw failure;
+  }
+
+  private static Path key(Path path) {
+    return path.toAbsolutePath().normalize();
+  }
+}
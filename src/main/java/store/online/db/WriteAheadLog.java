@@ -0,0 +1,279 @@
+package store.online.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+import store.online.db.FixedSizeSerializer.*;
+
+/**
+ * Append-only redo log of table mutations, with group commit.
+ * <p>
+ * Records have a fixed width:
+ * {@code [crc : 4 bytes][op : 4 bytes][serial : 4 bytes][key][value]}, where
+ * the CRC32C covers everything after itself and lets {@link #replay} stop at a
+ * torn or half-written tail. Appending only writes to the file; making records
+ * durable is a separate {@link #sync} so that concurrent writers share one
+ * {@code fsync}: the first writer to need it forces everything appended so far
+ * while the others wait, and whoever queued during that force rides the next
+ * one.
+ * </p>
+ * <p>
+ * Positions handed out by the append methods (log sequence numbers) only ever
+ * grow, also across {@link #reset}, so a writer waiting on a record that a
+ * checkpoint made redundant is released right away.
+ * </p>
+ *
+ * @author Alfredo
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public final class WriteAheadLog<K, V> implements Closeable {
+
+  private static final int PUT = 1;
+  private static final int REMOVE = 2;
+  private static final int CLEAR = 3;
+
+  private static final int PAYLOAD = 12; // [crc][op][serial]
+
+  /**
+   * Receives the records of the log, oldest first.
+   */
+  public interface Replay<K, V> {
+    void put(K key, V value, int serial);
+
+    void remove(K key);
+
+    void clear();
+  }
+
+  private final FileChannel ch;
+  private final FixedElementSerializer<K> keyCodec;
+  private final FixedElementSerializer<V> valCodec;
+  private final int recordSize;
+  private final long groupCommitNanos;
+  private final ByteBuffer record;
+
+  // Guarded by this
+  private long base; // sequence number of file offset 0
+  private long end; // file offset of the next record
+
+  private final Object syncLock = new Object();
+  // Guarded by syncLock
+  private long durable;
+  private boolean syncing;
+  private long forces;
+
+  /**
+   * @param path              log file (created if missing)
+   * @param keyCodec          key codec of the table
+   * @param valCodec          value codec of the table
+   * @param groupCommitMicros how long a forcing writer waits for others to
+   *                          append before the {@code fsync} (0 to force
+   *                          right away)
+   */
+  public WriteAheadLog(Path path,
+      FixedElementSerializer<K> keyCodec,
+      FixedElementSerializer<V> valCodec,
+      int groupCommitMicros) throws IOException {
+    if (groupCommitMicros < 0)
+      throw new IllegalArgumentException("Group commit delay cannot be negative");
+    this.keyCodec = keyCodec;
+    this.valCodec = valCodec;
+    this.recordSize = PAYLOAD + keyCodec.fixedSize() + valCodec.fixedSize();
+    this.groupCommitNanos = groupCommitMicros * 1000L;
+    this.record = ByteBuffer.allocate(recordSize).order(ByteOrder.LITTLE_ENDIAN);
+    this.ch = FileChannel.open(path,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    this.end = ch.size();
+  }
+
+  /**
+   * Logs that {@code key} now maps to {@code value}.
+   *
+   * @param serial table serial count after the write
+   * @return sequence number to {@link #sync} on
+   */
+  public long appendPut(K key, V value, int serial) throws IOException {
+    return append(PUT, serial, key, value);
+  }
+
+  /**
+   * Logs that {@code key} was removed.
+   *
+   * @return sequence number to {@link #sync} on
+   */
+  public long appendRemove(K key) throws IOException {
+    return append(REMOVE, 0, key, null);
+  }
+
+  /**
+   * Logs that every key was removed.
+   *
+   * @return sequence number to {@link #sync} on
+   */
+  public long appendClear() throws IOException {
+    return append(CLEAR, 0, null, null);
+  }
+
+  /**
+   * Blocks until every record up to {@code lsn} is on disk, forcing the log
+   * unless another writer's force already covers it.
+   *
+   * @param lsn sequence number returned by an append
+   * @throws IOException if the force fails or the wait is interrupted
+   */
+  public void sync(long lsn) throws IOException {
+    synchronized (syncLock) {
+      while (durable < lsn && syncing) {
+        try {
+          syncLock.wait();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for the log to be forced");
+        }
+      }
+      if (durable >= lsn)
+        return;
+      syncing = true;
+    }
+
+    long target = -1;
+    try {
+      if (groupCommitNanos > 0)
+        LockSupport.parkNanos(groupCommitNanos);
+      target = position();
+      ch.force(false);
+    } finally {
+      synchronized (syncLock) {
+        syncing = false;
+        // On failure nothing new is durable; the next waiter retries the force
+        if (target >= 0) {
+          durable = Math.max(durable, target);
+          forces++;
+        }
+        syncLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Feeds every intact record to {@code sink}, oldest first, and cuts the file
+   * after the last one.
+   *
+   * @return number of records replayed
+   */
+  public synchronized int replay(Replay<K, V> sink) throws IOException {
+    int replayed = 0;
+    long offset = 0;
+    ByteBuffer buf = ByteBuffer.allocate(recordSize).order(ByteOrder.LITTLE_ENDIAN);
+    while (offset + recordSize <= end) {
+      if (!readFully(buf, offset) || buf.getInt(0) != crc(buf))
+        break;
+
+      int op = buf.getInt(4);
+      if (op == PUT)
+        sink.put(keyCodec.read(buf, PAYLOAD), valCodec.read(buf, PAYLOAD + keyCodec.fixedSize()), buf.getInt(8));
+      else if (op == REMOVE)
+        sink.remove(keyCodec.read(buf, PAYLOAD));
+      else if (op == CLEAR)
+        sink.clear();
+      else
+        break;
+      replayed++;
+      offset += recordSize;
+    }
+    ch.truncate(offset);
+    end = offset;
+    return replayed;
+  }
+
+  /**
+   * Empties the log. Callers must have made the table itself durable first.
+   */
+  public void reset() throws IOException {
+    long covered;
+    synchronized (this) {
+      ch.truncate(0);
+      ch.force(false);
+      base += end;
+      end = 0;
+      covered = base;
+    }
+    synchronized (syncLock) {
+      durable = Math.max(durable, covered);
+      syncLock.notifyAll();
+    }
+  }
+
+  /**
+   * @return {@code fsync}s done by {@link #sync} since the log was opened;
+   *         fewer than the records synced when writers share them
+   */
+  public long forces() {
+    synchronized (syncLock) {
+      return forces;
+    }
+  }
+
+  /**
+   * @return bytes currently in the log
+   */
+  public synchronized long size() {
+    return end;
+  }
+
+  @Override
+  public void close() throws IOException {
+    ch.close();
+  }
+
+  // ---- internals ----
+
+  private synchronized long position() {
+    return base + end;
+  }
+
+  private synchronized long append(int op, int serial, K key, V value) throws IOException {
+    record.clear();
+    Arrays.fill(record.array(), (byte) 0);
+    record.putInt(4, op);
+    record.putInt(8, serial);
+    if (key != null)
+      keyCodec.write(record, PAYLOAD, key);
+    if (value != null)
+      valCodec.write(record, PAYLOAD + keyCodec.fixedSize(), value);
+    record.putInt(0, crc(record));
+
+    while (record.hasRemaining())
+      ch.write(record, end + record.position());
+    end += recordSize;
+    return base + end;
+  }
+
+  private boolean readFully(ByteBuffer buf, long offset) throws IOException {
+    buf.clear();
+    while (buf.hasRemaining()) {
+      if (ch.read(buf, offset + buf.position()) < 0)
+        return false;
+    }
+    return true;
+  }
+
+  private int crc(ByteBuffer buf) {
+    CRC32C crc = new CRC32C();
+    crc.update(buf.array(), 4, recordSize - 4);
+    return (int) crc.getValue();
+  }
+}
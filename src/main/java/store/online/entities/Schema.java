@@ -1,5 +1,7 @@
 package store.online.entities;
 
+import store.online.utils.list.List;
+
 public class Schema {
 
   public static final class User {
@@ -15,4 +17,15 @@ public class Schema {
     public String category; // [32 bytes]
     public String currency; // [8 bytes] USD | EURO
   }
+
+  /**
+   * One page of a keyset-paginated listing.
+   *
+   * @param items page contents, in ascending id order; may be short, or even
+   *              empty, on a page that is not the last
+   * @param next  id to pass as {@code after} for the following page, or
+   *              {@code null} on the last page
+   */
+  public static final record Page<T>(List<T> items, Integer next) {
+  }
 }
@@ -4,15 +4,36 @@
 package store.online.repository;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
 
 import org.springframework.stereotype.Repository;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import store.online.db.DBIndex;
+import store.online.db.DBPostings;
 import store.online.db.DBTableMap;
+import store.online.db.DBTableMap.Durability;
+import store.online.db.DBTableMap.Options;
+import store.online.db.DBTableMap.RehashMode;
+import store.online.db.FieldMatch;
+import store.online.db.FixedSizeSerializer.*;
+import store.online.db.IntKeyDBTableMap;
+import store.online.db.TableRegistry;
 import store.online.entities.Schema;
+import store.online.entities.Schema.Page;
 import store.online.entities.Schema.Product;
+import store.online.utils.cache.LRUCache;
 import store.online.utils.list.ArrayList;
 import store.online.utils.list.List;
 
@@ -25,15 +46,267 @@ public class ProductsRepository {
 
 	private final int INITIAL_BUCKETS = 4;
 	private final Path PRODUCTS_DB = Paths.get("data/products.db");
+	private static final int CATEGORY_WIDTH = 32;
+	private static final int NAME_WIDTH = 64;
+	private static final int CACHE_ENTRIES = 4096;
+	/** Most ids a paged read examines, unless the page size is larger. */
+	private static final int PAGE_SCAN = 4096;
+
+	/**
+	 * Hot products by id, so repeated lookups skip decoding the entry. Holds its
+	 * own copies; callers always get a fresh one they may modify.
+	 */
+	private final LRUCache<Integer, Product> cache = new LRUCache<>(CACHE_ENTRIES);
+
+	private static final long UNPUBLISHED = Long.MIN_VALUE;
+
+	/**
+	 * Table version as of the last write whose indexes are up to date, set by
+	 * writers before they leave the table's monitor (see {@link #version()}).
+	 */
+	private volatile long published = UNPUBLISHED;
+
+	/**
+	 * Fixed-width codec for products.
+	 * Layout: [id 4][category 32][price 4][name 64][currency 8][image 255]
+	 */
+	public static final class ProductSerializer implements FixedElementSerializer<Schema.Product> {
+		private static final IntSerializer INT = new IntSerializer();
+		private static final StringSerializer CATEGORY = new StringSerializer(CATEGORY_WIDTH);
+		private static final StringSerializer NAME = new StringSerializer(NAME_WIDTH);
+		private static final StringSerializer CURRENCY = new StringSerializer(8);
+		private static final StringSerializer IMAGE = new StringSerializer(255);
+
+		// Field offsets within a product
+		private static final int CATEGORY_AT = 4;
+		private static final int PRICE_AT = 36;
+		private static final int NAME_AT = 40;
+		private static final int CURRENCY_AT = 104;
+		private static final int IMAGE_AT = 112;
+
+		@Override
+		public int fixedSize() {
+			return 4 + 32 + 4 + 64 + 8 + 255;
+		}
+
+		@Override
+		public void write(ByteBuffer buf, int pos, Schema.Product p) {
+			INT.write(buf, pos, p.id);
+			CATEGORY.write(buf, pos + CATEGORY_AT, orEmpty(p.category));
+			buf.putFloat(pos + PRICE_AT, p.price);
+			NAME.write(buf, pos + NAME_AT, orEmpty(p.name));
+			CURRENCY.write(buf, pos + CURRENCY_AT, orEmpty(p.currency));
+			IMAGE.write(buf, pos + IMAGE_AT, orEmpty(p.image));
+		}
+
+		@Override
+		public Schema.Product read(ByteBuffer buf, int pos) {
+			Schema.Product p = new Schema.Product();
+			p.id = INT.readInt(buf, pos);
+			p.category = CATEGORY.read(buf, pos + CATEGORY_AT);
+			p.price = buf.getFloat(pos + PRICE_AT);
+			p.name = NAME.read(buf, pos + NAME_AT);
+			p.currency = CURRENCY.read(buf, pos + CURRENCY_AT);
+			p.image = IMAGE.read(buf, pos + IMAGE_AT);
+			return p;
+		}
+
+		private static String orEmpty(String s) {
+			return s == null ? "" : s;
+		}
+	}
+
+	/**
+	 * Product read in place from its slot in the products table. Each field is
+	 * decoded the first time it is asked for, so a filter on the name or the
+	 * category skips the other strings (the 255-byte image above all) of every
+	 * product it rejects, and only the ones it keeps become a {@link Product}.
+	 * <p>
+	 * Only valid inside the {@link FieldReader} it was handed to; a scan moves
+	 * one view from slot to slot with {@link #at}.
+	 * </p>
+	 */
+	public static final class ProductView {
+		private ByteBuffer buf;
+		private int pos;
+		private String category;
+		private String name;
+
+		/**
+		 * Points the view at the product stored at {@code pos}, forgetting the
+		 * fields decoded so far.
+		 */
+		public ProductView at(ByteBuffer buf, int pos) {
+			this.buf = buf;
+			this.pos = pos;
+			this.category = null;
+			this.name = null;
+			return this;
+		}
+
+		public int id() {
+			return ProductSerializer.INT.readInt(buf, pos);
+		}
+
+		public String category() {
+			if (category == null)
+				category = ProductSerializer.CATEGORY.read(buf, pos + ProductSerializer.CATEGORY_AT);
+			return category;
+		}
+
+		public String name() {
+			if (name == null)
+				name = ProductSerializer.NAME.read(buf, pos + ProductSerializer.NAME_AT);
+			return name;
+		}
+
+		/**
+		 * @return the whole product, reusing the fields already decoded
+		 */
+		public Product toProduct() {
+			Product p = new Product();
+			p.id = id();
+			p.category = category();
+			p.price = buf.getFloat(pos + ProductSerializer.PRICE_AT);
+			p.name = name();
+			p.currency = ProductSerializer.CURRENCY.read(buf, pos + ProductSerializer.CURRENCY_AT);
+			p.image = ProductSerializer.IMAGE.read(buf, pos + ProductSerializer.IMAGE_AT);
+			return p;
+		}
+	}
 
 	public ProductsRepository() {
 
 	}
 
-	private DBTableMap<Integer, Schema.Product> open() throws IOException {
-		// TODO: Return a NEW DB Table with a proper EntrySerializer for Products
-		// and a valid hash function
-		return null; // Dummy Return
+	/**
+	 * How the repository opens the products table. The catalog is large enough
+	 * that a stop-the-world rehash shows up as a latency spike, so it grows
+	 * incrementally, and deleted products are vacuumed in the background before
+	 * their tombstones slow lookups down.
+	 */
+	public static final Options TABLE_OPTIONS = Options.DEFAULTS.withRehashMode(RehashMode.INCREMENTAL)
+			.withDurability(Durability.WAL)
+			.withVacuumThreshold(0.2);
+
+	/**
+	 * Opens a products table file with the layout and hashing of this
+	 * repository, e.g. to build one offline.
+	 * 
+	 * @param path            table file
+	 * @param initialCapacity slots of a new file
+	 * @param options         table options
+	 * @return the open table
+	 * @throws IOException
+	 */
+	public static IntKeyDBTableMap<Schema.Product> openTable(Path path, int initialCapacity, Options options)
+			throws IOException {
+		// Ids are dense, so a table sized for them stores id i in slot i
+		return new IntKeyDBTableMap<>(path, initialCapacity, new ProductSerializer(), id -> id, options);
+	}
+
+	private IntKeyDBTableMap<Schema.Product> open(Path path) throws IOException {
+		return openTable(path, INITIAL_BUCKETS, TABLE_OPTIONS);
+	}
+
+	/**
+	 * Shared handle for the products table, opened on first use and kept open
+	 * until {@link #close()}.
+	 */
+	private IntKeyDBTableMap<Schema.Product> table() throws IOException {
+		return TableRegistry.shared().acquire(PRODUCTS_DB, this::open);
+	}
+
+	/**
+	 * Whether an index file has to be (re)built from the products table: it does
+	 * not exist yet, one of its companion files is missing (an older layout of
+	 * the index), or the table was recovered from its log after a crash and the
+	 * index, which is not logged, may have missed the replayed writes.
+	 */
+	private boolean needsBuild(Path index, String... companions) throws IOException {
+		boolean build = !Files.exists(index) || table().recovered();
+		for (String c : companions)
+			build |= !Files.exists(Path.of(index + c));
+		if (!build)
+			return false;
+		// Leftovers would be opened as part of the new index
+		Files.deleteIfExists(index);
+		for (String c : companions)
+			Files.deleteIfExists(Path.of(index + c));
+		return true;
+	}
+
+	/**
+	 * Category -> product ids index, stored next to the products table. When the
+	 * index file does not exist yet it is built from the current table.
+	 */
+	private DBIndex<String> openCategoryIndex(Path path) throws IOException {
+		boolean fresh = needsBuild(path, ".links");
+		var index = new DBIndex<String>(path, INITIAL_BUCKETS, new StringSerializer(CATEGORY_WIDTH), String::hashCode);
+		if (fresh) {
+			// In id order, so every add lands at the tail of its group
+			var db = table();
+			int serial = db.header().serialCount();
+			for (int id = 0; id < serial; id++) {
+				Product p = db.getInt(id);
+				if (p != null)
+					index.add(categoryKey(p.category), id);
+			}
+		}
+		return index;
+	}
+
+	private DBIndex<String> categoryIndex() throws IOException {
+		return TableRegistry.shared().acquire(sibling("category"), this::openCategoryIndex);
+	}
+
+	/**
+	 * Trigram -> product ids index over lower-cased names, stored next to the
+	 * products table and built from it when the file does not exist yet.
+	 */
+	private DBPostings<Long> openNameIndex(Path path) throws IOException {
+		boolean fresh = needsBuild(path, ".nodes", ".ids");
+		var index = new DBPostings<Long>(path, INITIAL_BUCKETS, new LongSerializer(), key -> Long.hashCode(key));
+		if (fresh) {
+			// Walked with a cursor, so the build never holds the whole catalog
+			try (var c = table().cursor()) {
+				while (c.next())
+					for (long t : trigrams(nameKey(c.value().name)))
+						index.add(t, c.key());
+			}
+		}
+		return index;
+	}
+
+	private DBPostings<Long> nameIndex() throws IOException {
+		return TableRegistry.shared().acquire(sibling("name"), this::openNameIndex);
+	}
+
+	/**
+	 * Opens (and maps) the products table at startup so the first request does
+	 * not pay for it.
+	 */
+	@PostConstruct
+	public void warmUp() {
+		try {
+			table();
+			categoryIndex();
+			nameIndex();
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/**
+	 * Releases the products table and its indexes on shutdown.
+	 * 
+	 * @throws IOException
+	 */
+	@PreDestroy
+	public void close() throws IOException {
+		TableRegistry.shared().release(sibling("name"));
+		TableRegistry.shared().release(sibling("category"));
+		TableRegistry.shared().release(PRODUCTS_DB);
 	}
 
 	/**
@@ -43,20 +316,57 @@ public class ProductsRepository {
 	 * @return Optional<Product>
 	 */
 	public Optional<Schema.Product> getProduct(int id) {
-		// TODO: Implement get Product by Id
+		try {
+			var db = table();
+			return Optional.ofNullable(cache.get(id, db::getInt)).map(ProductsRepository::copy);
+		} catch (IOException ioe) {
+			return Optional.empty();
+		}
+	}
 
-		return Optional.empty();
+	/**
+	 * Change counter of the products table (see {@link DBTableMap#version()}),
+	 * as published by the last write once its index maintenance was done: a
+	 * listing read after this call is never older than the version it returned,
+	 * including the per-category ones. Never waits for a writer.
+	 * 
+	 * @return current version, or -1 if the table cannot be opened
+	 */
+	public long version() {
+		long v = published;
+		if (v != UNPUBLISHED)
+			return v;
+		try {
+			// No write yet: start from the table as opened
+			var db = table();
+			synchronized (db) {
+				if (published == UNPUBLISHED)
+					published = db.version();
+				return published;
+			}
+		} catch (IOException ioe) {
+			return -1;
+		}
 	}
 
 	/**
-	 * Return all products (simple scan via keys).
+	 * @return hit/miss counters of the product cache
+	 */
+	public LRUCache.Stats cacheStats() {
+		return cache.stats();
+	}
+
+	/**
+	 * Return all products, decoded in parallel chunks of the table.
 	 * 
 	 * @return List<Product>
 	 */
 	public List<Schema.Product> getProducts() {
-		// TODO: Implement get Products
-
-		return new ArrayList<>(); // Dummy return
+		try {
+			return table().parallelGetValues();
+		} catch (IOException ioe) {
+			return new ArrayList<>();
+		}
 	}
 
 	/**
@@ -66,9 +376,31 @@ public class ProductsRepository {
 	 * @return true if inserted
 	 */
 	public boolean insertProduct(Schema.Product p) {
-		// TODO: Implement insert product
-		// Hint: New products need a unique id's
-		return false; // Dummy return
+		try {
+			var db = table();
+			var categories = categoryIndex();
+			var names = nameIndex();
+			boolean[] done = new boolean[1];
+			long lsn;
+			// Writers lock the shared table handle so each write and its index
+			// maintenance happen as one step. The log is forced after leaving
+			// it, so concurrent writers share one fsync
+			synchronized (db) {
+				lsn = db.batchUnsynced(b -> {
+					// New ids come from the serial counter, which never goes backwards
+					p.id = b.header().serialCount();
+					done[0] = b.putIfAbsent(p.id, p);
+				});
+				if (!done[0])
+					return false;
+				indexInserted(categories, names, p);
+				published = db.version();
+			}
+			db.awaitDurable(lsn);
+			return true;
+		} catch (IOException ioe) {
+			return false;
+		}
 	}
 
 	/**
@@ -78,8 +410,29 @@ public class ProductsRepository {
 	 * @return true if updated
 	 */
 	public boolean updateProduct(Schema.Product p) {
-		// TODO: Implement update product
-		return false; // Dummy return
+		try {
+			var db = table();
+			var categories = categoryIndex();
+			var names = nameIndex();
+			Product[] old = new Product[1];
+			long lsn;
+			synchronized (db) {
+				lsn = db.batchUnsynced(b -> {
+					old[0] = b.get(p.id);
+					if (old[0] != null && !b.replace(p.id, p))
+						old[0] = null;
+				});
+				if (old[0] == null)
+					return false;
+				cache.invalidate(p.id);
+				indexUpdated(categories, names, old[0], p);
+				published = db.version();
+			}
+			db.awaitDurable(lsn);
+			return true;
+		} catch (IOException ioe) {
+			return false;
+		}
 	}
 
 	/**
@@ -89,13 +442,157 @@ public class ProductsRepository {
 	 * @return true if deleted
 	 */
 	public boolean deleteProduct(int id) {
-		try (var db = open()) {
-			return db.remove(id) != null;
+		try {
+			var db = table();
+			var categories = categoryIndex();
+			var names = nameIndex();
+			Product[] old = new Product[1];
+			long lsn;
+			synchronized (db) {
+				lsn = db.batchUnsynced(b -> old[0] = b.remove(id));
+				if (old[0] == null)
+					return false;
+				cache.invalidate(id);
+				indexRemoved(categories, names, old[0]);
+				published = db.version();
+			}
+			db.awaitDurable(lsn);
+			return true;
 		} catch (IOException ioe) {
 			return false;
 		}
 	}
 
+	/**
+	 * Inserts several products in one table write: the table is grown once up
+	 * front, written under a single lock with one header update and, with its
+	 * log, made durable with one {@code fsync}. Ids are assigned in order, as
+	 * {@link #insertProduct(Product)} would.
+	 * 
+	 * @param products
+	 * @return per product, true if inserted
+	 */
+	public boolean[] insertProducts(List<Product> products) {
+		boolean[] done = new boolean[products.size()];
+		try {
+			var db = table();
+			var categories = categoryIndex();
+			var names = nameIndex();
+			long[] lsn = new long[1];
+			synchronized (db) {
+				db.reserve(products.size());
+				try {
+					lsn[0] = db.batchUnsynced(b -> {
+						int i = 0;
+						for (Product p : products) {
+							p.id = b.header().serialCount();
+							done[i++] = b.putIfAbsent(p.id, p);
+						}
+					});
+				} finally {
+					// Index whatever the batch applied, also if it failed half way
+					int i = 0;
+					for (Product p : products)
+						if (done[i++])
+							indexInserted(categories, names, p);
+					published = db.version();
+				}
+			}
+			db.awaitDurable(lsn[0]);
+		} catch (IOException | UncheckedIOException e) {
+			// What was applied before the failure stays applied and is reported
+		}
+		return done;
+	}
+
+	/**
+	 * Updates several products in one table write (see
+	 * {@link #insertProducts(List)}).
+	 * 
+	 * @param products
+	 * @return per product, true if updated
+	 */
+	public boolean[] updateProducts(List<Product> products) {
+		boolean[] done = new boolean[products.size()];
+		try {
+			var db = table();
+			var categories = categoryIndex();
+			var names = nameIndex();
+			long[] lsn = new long[1];
+			synchronized (db) {
+				Product[] olds = new Product[products.size()];
+				try {
+					lsn[0] = db.batchUnsynced(b -> {
+						int i = 0;
+						for (Product p : products) {
+							olds[i] = b.get(p.id);
+							done[i] = olds[i] != null && b.replace(p.id, p);
+							i++;
+						}
+					});
+				} finally {
+					int i = 0;
+					for (Product p : products) {
+						if (done[i]) {
+							cache.invalidate(p.id);
+							indexUpdated(categories, names, olds[i], p);
+						}
+						i++;
+					}
+					published = db.version();
+				}
+			}
+			db.awaitDurable(lsn[0]);
+		} catch (IOException | UncheckedIOException e) {
+			// What was applied before the failure stays applied and is reported
+		}
+		return done;
+	}
+
+	/**
+	 * Deletes several products in one table write (see
+	 * {@link #insertProducts(List)}).
+	 * 
+	 * @param ids
+	 * @return per id, true if deleted
+	 */
+	public boolean[] deleteProducts(List<Integer> ids) {
+		boolean[] done = new boolean[ids.size()];
+		try {
+			var db = table();
+			var categories = categoryIndex();
+			var names = nameIndex();
+			long[] lsn = new long[1];
+			synchronized (db) {
+				Product[] olds = new Product[ids.size()];
+				try {
+					lsn[0] = db.batchUnsynced(b -> {
+						int i = 0;
+						for (int id : ids) {
+							olds[i] = b.remove(id);
+							done[i] = olds[i] != null;
+							i++;
+						}
+					});
+				} finally {
+					int i = 0;
+					for (int id : ids) {
+						if (done[i]) {
+							cache.invalidate(id);
+							indexRemoved(categories, names, olds[i]);
+						}
+						i++;
+					}
+					published = db.version();
+				}
+			}
+			db.awaitDurable(lsn[0]);
+		} catch (IOException | UncheckedIOException e) {
+			// What was applied before the failure stays applied and is reported
+		}
+		return done;
+	}
+
 	/**
 	 * Gets all the products of a given category
 	 * 
@@ -103,8 +600,18 @@ public class ProductsRepository {
 	 * @return List<Product>
 	 */
 	public List<Product> getProductsByCategory(String category) {
-		// TODO: Implement products by category
-		return new ArrayList<>(); // Dummy Return
+		List<Product> result = new ArrayList<>();
+		try {
+			var db = table();
+			for (int id : categoryIndex().ids(categoryKey(category))) {
+				Product p = db.getInt(id);
+				if (p != null)
+					result.add(p);
+			}
+		} catch (IOException ioe) {
+			return new ArrayList<>();
+		}
+		return result;
 	}
 
 	/**
@@ -114,7 +621,346 @@ public class ProductsRepository {
 	 * @return List<Product>
 	 */
 	public List<Product> searchByName(String name) {
-		// TODO: Implement search product by name
-		return new ArrayList<>();
+		if (name.length() < 3) {
+			// Too short for a trigram, scan instead
+			try {
+				return table().parallelScanValues(() -> nameContains(name));
+			} catch (IOException ioe) {
+				return new ArrayList<>();
+			}
+		}
+
+		try {
+			var db = table();
+			var names = nameIndex();
+
+			// Every match contains all trigrams of the needle, so the shortest
+			// posting list is a complete candidate set
+			long rarest = 0;
+			int best = Integer.MAX_VALUE;
+			for (long t : trigrams(name)) {
+				int size = names.size(t);
+				if (size < best) {
+					best = size;
+					rarest = t;
+				}
+			}
+
+			List<Product> result = new ArrayList<>();
+			if (best == 0)
+				return result;
+			// Postings may be stale or repeated, verify against the table
+			Set<Integer> seen = new HashSet<>();
+			var matches = nameContains(name);
+			for (int id : names.ids(rarest)) {
+				if (!seen.add(id))
+					continue;
+				Product p = db.viewInt(id, matches);
+				if (p != null)
+					result.add(p);
+			}
+			return result;
+		} catch (IOException ioe) {
+			return new ArrayList<>();
+		}
+	}
+
+	/**
+	 * One page of the catalog in id order, walking the id space instead of
+	 * listing the table. Ids come from the serial counter, so they are dense apart
+	 * from deleted products; a long run of deleted ids ends the page early, with
+	 * a cursor to carry on from.
+	 * 
+	 * @param after last id of the previous page, or -1 for the first page (any
+	 *              id at or past the last one gives an empty page)
+	 * @param limit maximum page size
+	 * @return Page<Product>
+	 */
+	public Page<Product> getProductsPage(int after, int limit) {
+		try {
+			var db = table();
+			int serial = db.header().serialCount();
+			List<Product> items = new ArrayList<>(limit);
+			// Past the last id there is nothing to read (and after + 1 could overflow)
+			if (after >= serial - 1)
+				return page(items, -1, false);
+			int id = Math.max(after, -1) + 1;
+			int end = scanEnd(id, serial, limit);
+			for (; id < end && items.size() < limit; id++) {
+				Product p = db.getInt(id);
+				if (p != null)
+					items.add(p);
+			}
+			return page(items, id - 1, id < serial);
+		} catch (IOException ioe) {
+			return new Page<>(new ArrayList<>(), null);
+		}
+	}
+
+	/**
+	 * One page of a category in id order, read from the category index.
+	 * 
+	 * @param category
+	 * @param after    last id of the previous page, or -1 for the first page
+	 * @param limit    maximum page size
+	 * @return Page<Product>
+	 */
+	public Page<Product> getProductsByCategoryPage(String category, int after, int limit) {
+		try {
+			var db = table();
+			List<Integer> ids = categoryIndex().idsAfter(categoryKey(category), after, limit);
+			List<Product> items = new ArrayList<>(limit);
+			for (int id : ids) {
+				Product p = db.getInt(id);
+				if (p != null)
+					items.add(p);
+			}
+			// A full page of ids may be followed by more, even if some of them were
+			// deleted meanwhile and the page came out short
+			return page(items, ids.isEmpty() ? -1 : ids.last(), ids.size() == limit);
+		} catch (IOException ioe) {
+			return new Page<>(new ArrayList<>(), null);
+		}
+	}
+
+	/**
+	 * One page of the products whose name contains {@code name}, in id order.
+	 * Candidates come from the rarest trigram of the needle, as in
+	 * {@link #searchByName(String)}, and only as many as needed to fill the page
+	 * are read from the table.
+	 * 
+	 * @param name  lower-cased needle
+	 * @param after last id of the previous page, or -1 for the first page
+	 * @param limit maximum page size
+	 * @return Page<Product>
+	 */
+	public Page<Product> searchByNamePage(String name, int after, int limit) {
+		try {
+			var db = table();
+			List<Product> items = new ArrayList<>(limit);
+			var matches = nameContains(name);
+			if (name.length() < 3) {
+				// Too short for a trigram: walk the ids themselves
+				int serial = db.header().serialCount();
+				if (after >= serial - 1)
+					return page(items, -1, false);
+				int id = Math.max(after, -1) + 1;
+				int end = scanEnd(id, serial, limit);
+				for (; id < end && items.size() < limit; id++) {
+					Product p = db.viewInt(id, matches);
+					if (p != null)
+						items.add(p);
+				}
+				return page(items, id - 1, id < serial);
+			}
+
+			// Bounded by the shortest posting list, whatever the cursor
+			int[] candidates = nameCandidates(name, after);
+			int i = 0;
+			int end = scanEnd(0, candidates.length, limit);
+			for (; i < end && items.size() < limit; i++) {
+				Product p = db.viewInt(candidates[i], matches);
+				if (p != null)
+					items.add(p);
+			}
+			return page(items, i == 0 ? -1 : candidates[i - 1], i < candidates.length);
+		} catch (IOException ioe) {
+			return new Page<>(new ArrayList<>(), null);
+		}
+	}
+
+	/**
+	 * The products whose name contains {@code name} among the next {@code span}
+	 * ids after {@code after}, tested in place. Unlike
+	 * {@link #searchByNamePage(String, int, int)} the cursor is the last id
+	 * examined rather than the last match, so every step costs {@code span}
+	 * lookups and walking a whole listing is a single pass over the ids, without
+	 * reading any posting list.
+	 * 
+	 * @param name  lower-cased needle
+	 * @param after last id examined by the previous step, or -1 to start
+	 * @param span  ids examined per step, at most {@value #PAGE_SCAN}
+	 * @return matches of this step, with the cursor of the next one
+	 */
+	public Page<Product> scanByNamePage(String name, int after, int span) {
+		try {
+			var db = table();
+			int serial = db.header().serialCount();
+			List<Product> items = new ArrayList<>();
+			if (after >= serial - 1)
+				return new Page<>(items, null);
+			var matches = nameContains(name);
+			int id = Math.max(after, -1) + 1;
+			int end = id + Math.min(Math.min(span, PAGE_SCAN), serial - id);
+			for (; id < end; id++) {
+				Product p = db.viewInt(id, matches);
+				if (p != null)
+					items.add(p);
+			}
+			return new Page<>(items, end < serial ? end - 1 : null);
+		} catch (IOException ioe) {
+			return new Page<>(new ArrayList<>(), null);
+		}
+	}
+
+	// ---- internals ----
+
+	/**
+	 * Adds a newly inserted product to the category and name indexes.
+	 */
+	private static void indexInserted(DBIndex<String> categories, DBPostings<Long> names, Product p) {
+		categories.add(categoryKey(p.category), p.id);
+		for (long t : trigrams(nameKey(p.name)))
+			names.add(t, p.id);
+	}
+
+	/**
+	 * Moves an updated product between categories and between the posting lists
+	 * of the trigrams its name lost and gained.
+	 */
+	private static void indexUpdated(DBIndex<String> categories, DBPostings<Long> names, Product old, Product p) {
+		categories.move(categoryKey(old.category), categoryKey(p.category), p.id);
+		Set<Long> before = trigrams(nameKey(old.name));
+		Set<Long> after = trigrams(nameKey(p.name));
+		for (long t : before)
+			if (!after.contains(t))
+				names.remove(t, p.id);
+		for (long t : after)
+			if (!before.contains(t))
+				names.add(t, p.id);
+	}
+
+	/**
+	 * Drops a deleted product from the category and name indexes.
+	 */
+	private static void indexRemoved(DBIndex<String> categories, DBPostings<Long> names, Product old) {
+		categories.remove(categoryKey(old.category), old.id);
+		for (long t : trigrams(nameKey(old.name)))
+			names.remove(t, old.id);
+	}
+
+	/**
+	 * Distinct ids greater than {@code after} in the shortest posting list among
+	 * the trigrams of {@code name}, ascending. Every match is among them.
+	 */
+	private int[] nameCandidates(String name, int after) throws IOException {
+		var names = nameIndex();
+		long rarest = 0;
+		int best = Integer.MAX_VALUE;
+		for (long t : trigrams(name)) {
+			int size = names.size(t);
+			if (size < best) {
+				best = size;
+				rarest = t;
+			}
+		}
+		if (best == 0)
+			return new int[0];
+		List<Integer> postings = names.ids(rarest);
+		int[] ids = new int[postings.size()];
+		int n = 0;
+		for (int id : postings)
+			if (id > after)
+				ids[n++] = id;
+		Arrays.sort(ids, 0, n);
+		// Indexes written before postings were removed may repeat ids
+		int distinct = 0;
+		for (int i = 0; i < n; i++)
+			if (distinct == 0 || ids[i] != ids[distinct - 1])
+				ids[distinct++] = ids[i];
+		return Arrays.copyOf(ids, distinct);
+	}
+
+	/**
+	 * Reads a product in place and materializes it only if its lower-cased name
+	 * contains {@code needle}. The name is tested on its stored bytes, so
+	 * rejected products are never decoded. For a single thread: it reuses one
+	 * view.
+	 */
+	private static FieldReader<Product> nameContains(String needle) {
+		FieldMatch match = FieldMatch.containsIgnoreCase(ProductSerializer.NAME_AT, NAME_WIDTH, needle);
+		ProductView view = new ProductView();
+		return (buf, pos) -> match.test(buf, pos) ? view.at(buf, pos).toProduct() : null;
+	}
+
+	/**
+	 * Wraps a page; the cursor is the last id examined when more may follow, so
+	 * products missing from the page (deleted, or not matching) never end the
+	 * listing early.
+	 */
+	private static Page<Product> page(List<Product> items, int lastExamined, boolean more) {
+		return new Page<>(items, more ? lastExamined : null);
+	}
+
+	/**
+	 * End of the ids a page starting at {@code from} may examine, out of those
+	 * below {@code to}: a full page's worth, or {@link #PAGE_SCAN} if that is
+	 * more.
+	 */
+	private static int scanEnd(int from, int to, int limit) {
+		return from + Math.min(Math.max(limit, PAGE_SCAN), to - from);
+	}
+
+	/**
+	 * Path of a file stored next to the products table, e.g.
+	 * {@code products.category.db}.
+	 */
+	private Path sibling(String kind) {
+		String name = PRODUCTS_DB.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		String base = dot < 0 ? name : name.substring(0, dot);
+		return PRODUCTS_DB.resolveSibling(base + "." + kind + ".db");
+	}
+
+	private static Product copy(Product p) {
+		Product c = new Product();
+		c.id = p.id;
+		c.price = p.price;
+		c.name = p.name;
+		c.image = p.image;
+		c.category = p.category;
+		c.currency = p.currency;
+		return c;
+	}
+
+	/**
+	 * Name as stored in the table (cut to the name column) and lower-cased, which
+	 * is what searches match against.
+	 */
+	private static String nameKey(String name) {
+		return fit(name == null ? "" : name, NAME_WIDTH).toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Distinct trigrams of {@code s}, each packed as three 16-bit chars.
+	 */
+	private static Set<Long> trigrams(String s) {
+		Set<Long> grams = new HashSet<>();
+		for (int i = 0; i + 3 <= s.length(); i++)
+			grams.add(((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2));
+		return grams;
+	}
+
+	/**
+	 * Index key for a category: case-insensitive and cut to what fits in the
+	 * category column.
+	 */
+	private static String categoryKey(String category) {
+		return fit(category == null ? "" : category.toLowerCase(Locale.ROOT), CATEGORY_WIDTH);
+	}
+
+	/**
+	 * Longest prefix of {@code s} whose UTF-8 encoding fits in {@code width}
+	 * bytes, cut at a character boundary.
+	 */
+	private static String fit(String s, int width) {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		if (b.length <= width)
+			return s;
+		// Back off over continuation bytes (10xxxxxx) to the start of a character
+		int n = width;
+		while (n > 0 && (b[n] & 0xC0) == 0x80)
+			n--;
+		return new String(b, 0, n, StandardCharsets.UTF_8);
 	}
 }
@@ -4,13 +4,22 @@
 package store.online.repository;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
 
 import org.springframework.stereotype.Repository;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import store.online.db.DBTableMap;
+import store.online.db.DBTableMap.Durability;
+import store.online.db.DBTableMap.EntrySerializer;
+import store.online.db.DBTableMap.Options;
+import store.online.db.FixedSizeSerializer.*;
+import store.online.db.TableRegistry;
 import store.online.entities.Schema.User;
 
 /**
@@ -20,6 +29,7 @@ import store.online.entities.Schema.User;
 public class UserRepository {
 
 	private final int INITIAL_BUCKETS = 4;
+	private final int USERNAME_BYTES = 32;
 	private final Path USERS_DATABASE = Paths.get("data/users.db");
 
 	public UserRepository() {
@@ -27,14 +37,54 @@ public class UserRepository {
 	}
 
 	/**
-	 * Open the disk-backed hash table (try-with-resources per operation).
+	 * Open the disk-backed hash table.
 	 * Key: fixed 32-byte UTF-8 string
 	 * Val: 4-byte int (passwordHash)
 	 */
-	private DBTableMap<String, Integer> open() throws IOException {
-		// TODO: Return a NEW DB Table with a proper EntrySerializer for user
-		// and a valid hash function
-		return null; // Dummy Return
+	private DBTableMap<String, Integer> open(Path path) throws IOException {
+		var codec = new EntrySerializer<String, Integer>(new StringSerializer(USERNAME_BYTES), new IntSerializer());
+		// A registered account must survive a crash
+		var options = Options.DEFAULTS.withDurability(Durability.WAL);
+		return new DBTableMap<>(path, INITIAL_BUCKETS, codec, String::hashCode, options);
+	}
+
+	/**
+	 * Shared handle for the users table, opened on first use and kept open until
+	 * {@link #close()}.
+	 */
+	private DBTableMap<String, Integer> table() throws IOException {
+		return TableRegistry.shared().acquire(USERS_DATABASE, this::open);
+	}
+
+	/**
+	 * Opens (and maps) the users table at startup so the first login does not
+	 * pay for it.
+	 */
+	@PostConstruct
+	public void warmUp() {
+		try {
+			table();
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/**
+	 * Releases the users table on shutdown.
+	 * 
+	 * @throws IOException
+	 */
+	@PreDestroy
+	public void close() throws IOException {
+		TableRegistry.shared().release(USERS_DATABASE);
+	}
+
+	/**
+	 * Whether a username fits the key column. Longer ones would be stored cut
+	 * short and never found again by their full value.
+	 */
+	private boolean fits(String username) {
+		return username.getBytes(StandardCharsets.UTF_8).length <= USERNAME_BYTES;
 	}
 
 	/**
@@ -43,18 +93,37 @@ public class UserRepository {
 	 * @return Optional<User>
 	 */
 	public Optional<User> getUser(String username) {
-		// TODO: Get the user by username
-		return Optional.empty(); // Dummy return
+		if (username == null || username.isBlank() || !fits(username))
+			return Optional.empty();
+		try {
+			Integer hash = table().get(username);
+			if (hash == null)
+				return Optional.empty();
+			User user = new User();
+			user.username = username;
+			user.passwordHash = hash;
+			return Optional.of(user);
+		} catch (IOException ioe) {
+			return Optional.empty();
+		}
 	}
 
 	/**
 	 * Creates a new user if username is not already in the table.
 	 * 
 	 * @return true on success, false if username exists or IO error.
+	 * @throws IllegalArgumentException if the username is longer than 32 bytes
 	 */
 	public boolean createUser(User user) {
-		// TODO: Create a new user
-		return false; // Dummy return
+		if (user == null || user.username == null || user.username.isBlank())
+			return false;
+		if (!fits(user.username))
+			throw new IllegalArgumentException("Username cannot be longer than " + USERNAME_BYTES + " bytes");
+		try {
+			return table().putIfAbsent(user.username, user.passwordHash);
+		} catch (IOException ioe) {
+			return false;
+		}
 	}
 
 	/**
@@ -63,8 +132,13 @@ public class UserRepository {
 	 * @return true if deleted, false otherwise
 	 */
 	public boolean deleteUser(String username) {
-		// TODO: Delete user by username
-		return false; // Dummy return
+		if (username == null || username.isBlank() || !fits(username))
+			return false;
+		try {
+			return table().remove(username) != null;
+		} catch (IOException ioe) {
+			return false;
+		}
 	}
 
 	/**
@@ -73,7 +147,12 @@ public class UserRepository {
 	 * @return true if updated, false otherwise
 	 */
 	public boolean updatePassword(String username, int newHash) {
-		// TODO: Update password by username
-		return false; // Dummy return
+		if (username == null || username.isBlank() || !fits(username))
+			return false;
+		try {
+			return table().replace(username, newHash);
+		} catch (IOException ioe) {
+			return false;
+		}
 	}
 }
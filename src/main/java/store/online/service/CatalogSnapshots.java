@@ -0,0 +1,111 @@
+/*
+ * Rendered catalog listings.
+ */
+package store.online.service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import store.online.entities.Schema.Product;
+import store.online.repository.ProductsRepository;
+import store.online.utils.list.List;
+
+/**
+ * Keeps the JSON of the unfiltered and per-category product listings, so
+ * repeated requests neither rebuild the product list nor serialize it again.
+ * <p>
+ * Everything rendered is tagged with the products table version it was read
+ * at and thrown away once the table changes. The ETag is a digest of the bytes,
+ * so it stays valid across restarts for an unchanged catalog.
+ * </p>
+ *
+ * @author Alfredo
+ */
+@Service
+public class CatalogSnapshots {
+
+  /** Bound on cached category listings; other categories are rendered per request. */
+  private static final int MAX_CATEGORIES = 256;
+  private static final String ALL = "";
+
+  /**
+   * A rendered listing.
+   *
+   * @param json UTF-8 JSON array of products (must not be modified)
+   * @param etag strong entity tag, quoted
+   */
+  public static final record Rendered(byte[] json, String etag) {
+  }
+
+  /**
+   * Listings rendered while the table was at {@code version}.
+   */
+  private static final record Snapshot(long version, ConcurrentHashMap<String, Rendered> listings) {
+  }
+
+  private final ProductsRepository productsRepo;
+  private final ObjectMapper mapper;
+  private volatile Snapshot current = new Snapshot(Long.MIN_VALUE, new ConcurrentHashMap<>());
+
+  public CatalogSnapshots(ProductsRepository productsRepo, ObjectMapper mapper) {
+    this.productsRepo = productsRepo;
+    this.mapper = mapper;
+  }
+
+  /**
+   * @return every product, rendered
+   */
+  public Rendered all() {
+    return listing(ALL, productsRepo::getProducts);
+  }
+
+  /**
+   * @param category category to list (case-insensitive)
+   * @return the products of {@code category}, rendered
+   */
+  public Rendered byCategory(String category) {
+    return listing("category:" + category.toLowerCase(Locale.ROOT), () -> productsRepo.getProductsByCategory(category));
+  }
+
+  // ---- internals ----
+
+  private Rendered listing(String key, Supplier<List<Product>> products) {
+    // Read the version before the products: a listing may be newer than its
+    // tag, which only costs one extra render, but never older. The repository
+    // only hands out versions whose index maintenance is done, so this holds
+    // for category listings too
+    long version = productsRepo.version();
+    Snapshot s = current;
+    if (s.version() != version) {
+      s = new Snapshot(version, new ConcurrentHashMap<>());
+      current = s;
+    }
+
+    Rendered r = s.listings().get(key);
+    if (r != null)
+      return r;
+    r = render(products.get());
+    if (key.equals(ALL) || s.listings().size() < MAX_CATEGORIES)
+      s.listings().putIfAbsent(key, r);
+    return r;
+  }
+
+  private Rendered render(List<Product> products) {
+    try {
+      byte[] json = mapper.writeValueAsBytes(products);
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+      return new Rendered(json, "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"");
+    } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Cannot render the catalog", e);
+    }
+  }
+}
@@ -3,10 +3,16 @@
  */
 package store.online.service;
 
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Optional;
+
 import org.springframework.stereotype.Service;
 
+import store.online.entities.Schema.Page;
 import store.online.entities.Schema.Product;
 import store.online.repository.ProductsRepository;
+import store.online.utils.cache.LRUCache;
 import store.online.utils.list.ArrayList;
 import store.online.utils.list.List;
 
@@ -17,6 +23,17 @@ import store.online.utils.list.List;
 @Service
 public class ProductsService {
 
+  /** Products read per step while streaming a listing. */
+  private static final int STREAM_PAGE_SIZE = 256;
+
+  /**
+   * Consumer of streamed products; may fail writing them out.
+   */
+  @FunctionalInterface
+  public interface ProductAction {
+    void accept(Product p) throws IOException;
+  }
+
   private final ProductsRepository productsRepo;
 
   public ProductsService(ProductsRepository productsRepo) {
@@ -32,6 +49,25 @@ public class ProductsService {
     return productsRepo.getProducts();
   }
 
+  /**
+   * Return one product by id.
+   * 
+   * @param id
+   * @return the product, if it exists
+   */
+  public Optional<Product> getProduct(int id) {
+    return productsRepo.getProduct(id);
+  }
+
+  /**
+   * Return the counters of the product cache.
+   * 
+   * @return cache statistics
+   */
+  public LRUCache.Stats cacheStats() {
+    return productsRepo.cacheStats();
+  }
+
   /**
    * Return products filtered by category.
    * 
@@ -51,10 +87,53 @@ public class ProductsService {
   public List<Product> searchByName(String q) {
     if (q == null || q.isBlank())
       return new ArrayList<>();
-    String needle = q.toLowerCase();
+    String needle = q.toLowerCase(Locale.ROOT);
     return productsRepo.searchByName(needle);
   }
 
+  /**
+   * Return one page of products in id order, optionally filtered by category or
+   * by name (a name filter wins, as in the unpaged listing).
+   * 
+   * @param category category filter, or null
+   * @param q        name filter, or null
+   * @param after    last id of the previous page, or -1 for the first page
+   * @param limit    maximum page size
+   * @return Page of products
+   */
+  public Page<Product> getPage(String category, String q, int after, int limit) {
+    if (q != null && !q.isBlank())
+      return productsRepo.searchByNamePage(q.toLowerCase(Locale.ROOT), after, limit);
+    if (category != null && !category.isBlank())
+      return productsRepo.getProductsByCategoryPage(category, after, limit);
+    return productsRepo.getProductsPage(after, limit);
+  }
+
+  /**
+   * Feeds every product matching the filters to {@code action}, in id order,
+   * reading one page at a time so memory stays bounded by the page size
+   * however large the catalog is.
+   * 
+   * @param category category filter, or null
+   * @param q        name filter, or null
+   * @param action   receives each product as soon as its page is read
+   */
+  public void forEachProduct(String category, String q, ProductAction action) throws IOException {
+    // A name filter walks the ids in steps: paging through the matches would
+    // read the whole posting list again for every page
+    boolean byName = q != null && !q.isBlank();
+    String needle = byName ? q.toLowerCase(Locale.ROOT) : null;
+    Integer after = -1;
+    while (after != null) {
+      Page<Product> page = byName
+          ? productsRepo.scanByNamePage(needle, after, STREAM_PAGE_SIZE)
+          : getPage(category, null, after, STREAM_PAGE_SIZE);
+      for (Product p : page.items())
+        action.accept(p);
+      after = page.next();
+    }
+  }
+
   /**
    * Inserts a new product
    * 
@@ -75,6 +154,36 @@ public class ProductsService {
     return productsRepo.updateProduct(p);
   }
 
+  /**
+   * Inserts several products in one table write
+   * 
+   * @param products
+   * @return per product, true if inserted
+   */
+  public boolean[] insertAll(List<Product> products) {
+    return productsRepo.insertProducts(products);
+  }
+
+  /**
+   * Updates several products in one table write
+   * 
+   * @param products
+   * @return per product, true if updated
+   */
+  public boolean[] updateAll(List<Product> products) {
+    return productsRepo.updateProducts(products);
+  }
+
+  /**
+   * Deletes several products in one table write
+   * 
+   * @param ids
+   * @return per id, true if deleted
+   */
+  public boolean[] deleteAll(List<Integer> ids) {
+    return productsRepo.deleteProducts(ids);
+  }
+
   /**
    * Deletes a product
    * 
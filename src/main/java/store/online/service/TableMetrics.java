@@ -0,0 +1,66 @@
+/*
+ * Table health figures.
+ */
+package store.online.service;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Service;
+
+import store.online.db.DBTableMap;
+import store.online.db.TableRegistry;
+
+/**
+ * Collects {@link DBTableMap.Metrics} from every table the repositories have
+ * open, so degenerate hashing (long probes, piled-up tombstones, constant
+ * rehashing) shows up without attaching a debugger.
+ *
+ * @author Alfredo
+ */
+@Service
+public class TableMetrics {
+
+  /** Requests closer together than this get the figures of the last scan. */
+  private static final long MIN_SCAN_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  /**
+   * Figures of one scan and when it was taken.
+   */
+  private static final record Scan(long takenAt, Map<String, DBTableMap.Metrics> tables) {
+  }
+
+  private Scan last;
+
+  /**
+   * Figures of every open hash table, each taken with a scan of its slots. The
+   * endpoint is unauthenticated, so scans run one at a time and at most once
+   * every few seconds; requests in between share the last one.
+   *
+   * @return metrics by table file name
+   */
+  public synchronized Map<String, DBTableMap.Metrics> all() {
+    long now = System.nanoTime();
+    if (last == null || now - last.takenAt() >= MIN_SCAN_INTERVAL_NANOS)
+      last = new Scan(now, Collections.unmodifiableMap(scan()));
+    return last.tables();
+  }
+
+  private Map<String, DBTableMap.Metrics> scan() {
+    Map<String, DBTableMap.Metrics> out = new TreeMap<>();
+    for (Map.Entry<Path, Closeable> e : TableRegistry.shared().openTables().entrySet()) {
+      if (!(e.getValue() instanceof DBTableMap<?, ?> table))
+        continue;
+      try {
+        out.put(e.getKey().getFileName().toString(), table.metrics());
+      } catch (IllegalStateException closed) {
+        // Released while we were looking
+      }
+    }
+    return out;
+  }
+}
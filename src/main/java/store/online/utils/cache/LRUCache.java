@@ -0,0 +1,116 @@
+package store.online.utils.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded, thread-safe least-recently-used cache with hit/miss counters.
+ * <p>
+ * Fills race with invalidations: a value read from the backing store before an
+ * invalidation may already be stale, so {@link #get(Object, Function)} only
+ * stores what it loaded if no invalidation happened in between.
+ * </p>
+ *
+ * @author Alfredo
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LRUCache<K, V> {
+
+	/**
+	 * Point-in-time counters of a cache.
+	 */
+	public static final record Stats(long hits, long misses, long evictions, int size, int capacity) {
+
+		/**
+		 * @return hits over lookups, or 0 before the first lookup
+		 */
+		public double hitRate() {
+			long lookups = hits + misses;
+			return lookups == 0 ? 0 : (double) hits / lookups;
+		}
+	}
+
+	private final int capacity;
+	private final LinkedHashMap<K, V> entries;
+
+	// Guarded by this
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	public LRUCache(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1.");
+		this.capacity = capacity;
+		// Access order: every hit moves the entry to the young end
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				if (size() <= LRUCache.this.capacity)
+					return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached value for {@code key}, or loads it with {@code loader}
+	 * and caches it. The loader runs outside the cache lock; {@code null} results
+	 * are not cached.
+	 *
+	 * @param key    key to look up
+	 * @param loader reads the value from the backing store on a miss
+	 * @return the value, or {@code null} if the loader found none
+	 */
+	public V get(K key, Function<K, V> loader) {
+		long seen;
+		synchronized (this) {
+			V v = entries.get(key);
+			if (v != null) {
+				hits++;
+				return v;
+			}
+			misses++;
+			seen = invalidations;
+		}
+
+		V loaded = loader.apply(key);
+		if (loaded != null) {
+			synchronized (this) {
+				if (invalidations == seen)
+					entries.put(key, loaded);
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Drops {@code key} so the next lookup reads the backing store again.
+	 *
+	 * @param key key whose value changed or went away
+	 */
+	public synchronized void invalidate(K key) {
+		invalidations++;
+		entries.remove(key);
+	}
+
+	/**
+	 * Drops every entry.
+	 */
+	public synchronized void clear() {
+		invalidations++;
+		entries.clear();
+	}
+
+	/**
+	 * @return current counters
+	 */
+	public synchronized Stats stats() {
+		return new Stats(hits, misses, evictions, entries.size(), capacity);
+	}
+}
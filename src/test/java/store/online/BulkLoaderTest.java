@@ -0,0 +1,147 @@
+package store.online;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import store.online.entities.Schema.Product;
+import store.online.repository.ProductsRepository;
+
+/**
+ * @author Alfredo
+ */
+public class BulkLoaderTest {
+
+  @TempDir
+  Path tmp;
+
+  private ProductsRepository repoOver(Path table) throws Exception {
+    var repo = new ProductsRepository();
+    Field f = ProductsRepository.class.getDeclaredField("PRODUCTS_DB");
+    f.setAccessible(true);
+    f.set(repo, table);
+    return repo;
+  }
+
+  @Test
+  void csv_dump_loads_with_serial_ids_and_indexes_build_on_open() throws Exception {
+    Path dump = tmp.resolve("dump.csv");
+    Files.writeString(dump, String.join("\n",
+        "name,category,price,currency",
+        "Laptop,Electronics,1200,USD",
+        "\"Clean Code, 2nd \"\"ed\"\"\",Books,38.5,USD",
+        "",
+        "Phone,Electronics,600,EURO"));
+    Path table = tmp.resolve("products.db");
+
+    var r = BulkLoader.load(dump, table);
+    assertEquals(3, r.rows());
+
+    var repo = repoOver(table);
+    try {
+      assertEquals("Clean Code, 2nd \"ed\"", repo.getProduct(1).orElseThrow().name);
+      assertEquals(2, repo.getProductsByCategory("electronics").size());
+      Product p = new Product();
+      p.name = "Next";
+      p.currency = "USD";
+      assertTrue(repo.insertProduct(p));
+      assertEquals(3, p.id);
+    } finally {
+      repo.close();
+    }
+  }
+
+  @Test
+  void ndjson_dump_keeps_its_ids() throws Exception {
+    Path dump = tmp.resolve("dump.ndjson");
+    Files.writeString(dump, String.join("\n",
+        "{\"id\":0,\"name\":\"A\",\"category\":\"x\",\"price\":1,\"currency\":\"USD\",\"image\":null}",
+        "{\"id\":7,\"name\":\"B\",\"category\":\"x\",\"price\":2,\"currency\":\"USD\",\"image\":\"b.png\"}",
+        ""));
+    Path table = tmp.resolve("products.db");
+
+    assertEquals(2, BulkLoader.load(dump, table).rows());
+
+    var repo = repoOver(table);
+    try {
+      assertEquals("b.png", repo.getProduct(7).orElseThrow().image);
+      assertTrue(repo.getProduct(1).isEmpty());
+      Product p = new Product();
+      p.name = "C";
+      p.currency = "USD";
+      assertTrue(repo.insertProduct(p));
+      assertEquals(8, p.id); // never reuses a loaded id
+    } finally {
+      repo.close();
+    }
+  }
+
+  @Test
+  void malformed_dump_leaves_no_table() throws Exception {
+    Path dump = tmp.resolve("bad.ndjson");
+    Files.writeString(dump, String.join("\n",
+        "{\"id\":1,\"name\":\"A\",\"price\":1,\"currency\":\"USD\"}",
+        "{\"id\":1,\"name\":\"B\",\"price\":1,\"currency\":\"USD\"}"));
+    Path table = tmp.resolve("products.db");
+
+    var e = assertThrows(IllegalArgumentException.class, () -> BulkLoader.load(dump, table));
+    assertTrue(e.getMessage().contains("Line 2"));
+    assertFalse(Files.exists(table));
+
+    Files.writeString(table, "");
+    assertThrows(IllegalArgumentException.class, () -> BulkLoader.load(dump, table));
+  }
+
+  @Test
+  void ids_are_all_or_none_and_bounded() throws Exception {
+    Path table = tmp.resolve("products.db");
+
+    Path mixed = tmp.resolve("mixed.csv");
+    Files.writeString(mixed, "id,name,price,currency\n3,A,1,USD\n,B,1,USD\n");
+    var e = assertThrows(IllegalArgumentException.class, () -> BulkLoader.load(mixed, table));
+    assertTrue(e.getMessage().contains("Line 3"), e.getMessage());
+    assertFalse(Files.exists(table));
+
+    Path late = tmp.resolve("late.csv");
+    Files.writeString(late, "id,name,price,currency\n,A,1,USD\n5,B,1,USD\n");
+    e = assertThrows(IllegalArgumentException.class, () -> BulkLoader.load(late, table));
+    assertTrue(e.getMessage().contains("Line 3"), e.getMessage());
+
+    // Would have overflowed the serial counter
+    Path huge = tmp.resolve("huge.ndjson");
+    Files.writeString(huge, "{\"id\":" + Integer.MAX_VALUE + ",\"name\":\"A\",\"price\":1,\"currency\":\"USD\"}\n");
+    e = assertThrows(IllegalArgumentException.class, () -> BulkLoader.load(huge, table));
+    assertTrue(e.getMessage().contains("Line 1"), e.getMessage());
+    assertFalse(Files.exists(table));
+
+    Path sparse = tmp.resolve("sparse.ndjson");
+    Files.writeString(sparse, "{\"id\":65535,\"name\":\"A\",\"price\":1,\"currency\":\"USD\"}\n");
+    assertEquals(1, BulkLoader.load(sparse, table).rows());
+  }
+
+  @Test
+  void files_left_from_an_earlier_table_block_the_load() throws Exception {
+    Path dump = tmp.resolve("products.csv");
+    Files.writeString(dump, "name,category,price,currency\nLaptop,Electronics,1200,USD\n");
+    Path table = tmp.resolve("products.db");
+
+    for (String leftover : new String[] { "products.db.wal", "products.db.next", "products.category.db",
+        "products.name.db.nodes" }) {
+      Files.writeString(tmp.resolve(leftover), "");
+      var e = assertThrows(IllegalArgumentException.class, () -> BulkLoader.load(dump, table));
+      assertTrue(e.getMessage().contains(leftover), e.getMessage());
+      assertFalse(Files.exists(table));
+      Files.delete(tmp.resolve(leftover));
+    }
+
+    // Unrelated files next to it, the dump included, are fine
+    Files.writeString(tmp.resolve("products.backup.csv"), "");
+    Files.writeString(tmp.resolve("users.db.wal"), "");
+    assertEquals(1, BulkLoader.load(dump, table).rows());
+  }
+}
@@ -0,0 +1,100 @@
+package store.online;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import store.online.db.DBIndex;
+import store.online.db.FixedSizeSerializer.*;
+
+class DBIndexTest {
+
+  @TempDir
+  Path tmp;
+
+  private DBIndex<String> newIndex(String name) throws Exception {
+    return new DBIndex<>(tmp.resolve(name), 4, new StringSerializer(32), String::hashCode);
+  }
+
+  private static Object[] ids(DBIndex<String> idx, String key) {
+    return idx.ids(key).toArray();
+  }
+
+  @Test
+  void add_lists_ids_per_key_in_id_order() throws Exception {
+    try (var idx = newIndex("add.db")) {
+      assertTrue(idx.add("books", 3));
+      assertTrue(idx.add("toys", 1));
+      assertTrue(idx.add("books", 0));
+      assertTrue(idx.add("books", 10)); // beyond initial capacity -> grows
+
+      assertArrayEquals(new Object[] { 0, 3, 10 }, ids(idx, "books"));
+      assertArrayEquals(new Object[] { 1 }, ids(idx, "toys"));
+      assertEquals(0, ids(idx, "missing").length);
+      assertEquals(3, idx.size("books"));
+
+      assertFalse(idx.add("toys", 3), "an id belongs to one key at a time");
+    }
+  }
+
+  @Test
+  void remove_head_middle_and_tail() throws Exception {
+    try (var idx = newIndex("remove.db")) {
+      for (int id = 0; id < 5; id++)
+        idx.add("k", id);
+
+      assertTrue(idx.remove("k", 2)); // middle
+      assertTrue(idx.remove("k", 0)); // head
+      assertTrue(idx.remove("k", 4)); // tail
+      assertArrayEquals(new Object[] { 1, 3 }, ids(idx, "k"));
+
+      assertFalse(idx.remove("k", 2), "already removed");
+      assertFalse(idx.remove("other", 1), "wrong key");
+
+      assertTrue(idx.remove("k", 1));
+      assertTrue(idx.remove("k", 3));
+      assertEquals(0, ids(idx, "k").length);
+      assertTrue(idx.add("k", 2), "removed ids can be added again");
+    }
+  }
+
+  @Test
+  void move_and_persistence_across_reopen() throws Exception {
+    try (var idx = newIndex("persist.db")) {
+      idx.add("a", 0);
+      idx.add("a", 1);
+      assertTrue(idx.move("a", "b", 0));
+      assertFalse(idx.move("a", "b", 7));
+      assertTrue(idx.move("a", "a", 1), "same key is a no-op");
+    }
+    try (var idx = newIndex("persist.db")) {
+      assertArrayEquals(new Object[] { 1 }, ids(idx, "a"));
+      assertArrayEquals(new Object[] { 0 }, ids(idx, "b"));
+      assertTrue(idx.contains("b", 0));
+    }
+  }
+
+  @Test
+  void idsAfter_pages_a_group_in_id_order() throws Exception {
+    try (var idx = newIndex("pages.db")) {
+      for (int id : new int[] { 7, 2, 9, 4, 12, 0, 5 })
+        idx.add("k", id);
+      idx.add("other", 3);
+
+      assertArrayEquals(new Object[] { 0, 2, 4 }, idx.idsAfter("k", -1, 3).toArray());
+      assertArrayEquals(new Object[] { 5, 7, 9 }, idx.idsAfter("k", 4, 3).toArray());
+      assertArrayEquals(new Object[] { 12 }, idx.idsAfter("k", 9, 3).toArray());
+      assertEquals(0, idx.idsAfter("k", 12, 3).size());
+      // The bound does not have to be in the group
+      assertArrayEquals(new Object[] { 4, 5 }, idx.idsAfter("k", 3, 2).toArray());
+      assertArrayEquals(new Object[] { 9, 12 }, idx.idsAfter("k", 8, 5).toArray());
+
+      assertTrue(idx.move("k", "other", 5));
+      assertArrayEquals(new Object[] { 3, 5 }, ids(idx, "other"));
+      assertArrayEquals(new Object[] { 4, 7 }, idx.idsAfter("k", 2, 2).toArray());
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package store.online;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import store.online.db.DBPostings;
+import store.online.db.FixedSizeSerializer.*;
+
+class DBPostingsTest {
+
+  @TempDir
+  Path tmp;
+
+  private DBPostings<Long> newPostings(String name) throws Exception {
+    return new DBPostings<>(tmp.resolve(name), 2, new LongSerializer(), key -> Long.hashCode(key));
+  }
+
+  @Test
+  void ids_are_listed_newest_first_per_key() throws Exception {
+    try (var idx = newPostings("add.db")) {
+      idx.add(1L, 10);
+      idx.add(2L, 10);
+      idx.add(1L, 11);
+      idx.add(1L, 12); // node pool grows past its initial capacity
+
+      assertArrayEquals(new Object[] { 12, 11, 10 }, idx.ids(1L).toArray());
+      assertArrayEquals(new Object[] { 10 }, idx.ids(2L).toArray());
+      assertEquals(3, idx.size(1L));
+      assertEquals(0, idx.size(3L));
+      assertEquals(0, idx.ids(3L).size());
+    }
+  }
+
+  @Test
+  void remove_unlinks_head_middle_and_tail() throws Exception {
+    try (var idx = newPostings("remove.db")) {
+      for (int id = 1; id <= 5; id++)
+        idx.add(1L, id);
+      idx.add(2L, 3);
+
+      assertTrue(idx.remove(1L, 3)); // middle
+      assertTrue(idx.remove(1L, 5)); // head
+      assertTrue(idx.remove(1L, 1)); // tail
+      assertFalse(idx.remove(1L, 3), "already removed");
+      assertFalse(idx.remove(3L, 2), "unknown key");
+      assertArrayEquals(new Object[] { 4, 2 }, idx.ids(1L).toArray());
+      assertEquals(2, idx.size(1L));
+      assertArrayEquals(new Object[] { 3 }, idx.ids(2L).toArray(), "other keys keep the id");
+
+      assertTrue(idx.remove(1L, 4));
+      assertTrue(idx.remove(1L, 2));
+      assertEquals(0, idx.size(1L));
+      idx.add(1L, 9);
+      assertArrayEquals(new Object[] { 9 }, idx.ids(1L).toArray());
+    }
+  }
+
+  @Test
+  void remove_takes_only_the_ids_own_postings_and_reuses_their_nodes() throws Exception {
+    try (var idx = newPostings("reuse.db")) {
+      for (int id = 0; id < 100; id++)
+        for (long key = 1; key <= 3; key++)
+          idx.add(key, id);
+      idx.add(2L, 50); // repeated posting
+      assertEquals(301, idx.poolSize());
+
+      assertTrue(idx.remove(2L, 50));
+      assertEquals(99, idx.size(2L));
+      assertFalse(idx.ids(2L).contains(50));
+      assertEquals(100, idx.size(1L), "other keys keep the id");
+      assertEquals(100, idx.size(3L));
+      assertTrue(idx.remove(1L, 50));
+      assertTrue(idx.remove(3L, 50));
+      assertFalse(idx.remove(3L, 50), "already removed");
+      assertFalse(idx.remove(3L, 1000), "never posted");
+
+      // Renames and deletes recycle nodes instead of growing the pool
+      for (int round = 0; round < 10; round++)
+        for (int id = 0; id < 100; id++) {
+          idx.remove(1L, id);
+          idx.add(4L, id);
+          idx.remove(4L, id);
+          idx.add(1L, id);
+        }
+      assertEquals(301, idx.poolSize());
+      assertEquals(100, idx.size(1L));
+      assertEquals(0, idx.size(4L));
+      assertEquals(99, idx.ids(3L).size());
+    }
+    try (var idx = newPostings("reuse.db")) {
+      // The free list survives a reopen
+      idx.add(5L, 7);
+      idx.add(5L, 8);
+      assertEquals(301, idx.poolSize());
+      assertArrayEquals(new Object[] { 8, 7 }, idx.ids(5L).toArray());
+    }
+  }
+
+  @Test
+  void postings_persist_and_clear() throws Exception {
+    try (var idx = newPostings("persist.db")) {
+      idx.add(7L, 1);
+      idx.add(7L, 2);
+    }
+    try (var idx = newPostings("persist.db")) {
+      assertArrayEquals(new Object[] { 2, 1 }, idx.ids(7L).toArray());
+      idx.clear();
+      assertEquals(0, idx.size(7L));
+      idx.add(7L, 3);
+      assertArrayEquals(new Object[] { 3 }, idx.ids(7L).toArray());
+    }
+  }
+}
@@ -5,12 +5,20 @@ import static org.junit.jupiter.api.Assertions.*;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 import org.junit.jupiter.api.Test;
 
 import store.online.db.DBTableMap;
+import store.online.db.DiskArray;
 import store.online.db.HashFunction;
+import store.online.db.IntKeyDBTableMap;
+import store.online.db.DBTableMap.Durability;
 import store.online.db.DBTableMap.EntrySerializer;
+import store.online.db.DBTableMap.Options;
+import store.online.db.DBTableMap.Probing;
+import store.online.db.DBTableMap.RehashMode;
 import store.online.db.FixedSizeSerializer.*;
 
 class DBTableMapTest {
@@ -166,4 +174,748 @@ class DBTableMapTest {
       Files.deleteIfExists(f);
     }
   }
+
+  @Test
+  void putIfAbsent_and_replace_are_conditional() throws Exception {
+    Path f = temp("conditional");
+    try (var ht = newTable(f, 8)) {
+      assertTrue(ht.putIfAbsent("A", 1));
+      assertFalse(ht.putIfAbsent("A", 2));
+      assertEquals(1, ht.get("A"));
+      assertTrue(ht.replace("A", 3));
+      assertFalse(ht.replace("B", 4));
+      assertEquals(3, ht.get("A"));
+      assertNull(ht.get("B"));
+      assertEquals(1, ht.header().entryCount());
+    } finally {
+      Files.deleteIfExists(f);
+    }
+  }
+
+  @Test
+  void concurrent_readers_see_every_key_while_writer_rehashes() throws Exception {
+    Path f = temp("concurrent");
+    try (var ht = newTable(f, 4)) {
+      int n = 2_000;
+      var failures = new java.util.concurrent.atomic.AtomicInteger();
+      var written = new java.util.concurrent.atomic.AtomicInteger();
+      var pool = java.util.concurrent.Executors.newFixedThreadPool(4);
+
+      pool.submit(() -> {
+        for (int i = 0; i < n; i++) {
+          ht.put("k" + i, i);
+          written.set(i + 1);
+        }
+      });
+      for (int r = 0; r < 3; r++) {
+        pool.submit(() -> {
+          while (written.get() < n) {
+            int upTo = written.get();
+            for (int i = 0; i < upTo; i += 37) {
+              Integer v = ht.get("k" + i);
+              if (v == null || v != i)
+                failures.incrementAndGet();
+            }
+          }
+        });
+      }
+      pool.shutdown();
+      assertTrue(pool.awaitTermination(30, java.util.concurrent.TimeUnit.SECONDS));
+
+      assertEquals(0, failures.get());
+      assertEquals(n, ht.header().entryCount());
+      for (int i = 0; i < n; i++)
+        assertEquals(i, ht.get("k" + i));
+    } finally {
+      Files.deleteIfExists(f);
+    }
+  }
+
+  private DBTableMap<String, Integer> newIncrementalTable(Path file, int cap) throws Exception {
+    var codec = new EntrySerializer<String, Integer>(new StringSerializer(32), new IntSerializer());
+    var options = Options.DEFAULTS.withRehashMode(RehashMode.INCREMENTAL).withMigrationBatch(2);
+    return new DBTableMap<>(file, cap, codec, hf(), options);
+  }
+
+  @Test
+  void incremental_rehash_serves_reads_from_both_arrays() throws Exception {
+    Path f = temp("incremental");
+    Path next = Path.of(f + ".next");
+    try (var ht = newIncrementalTable(f, 8)) {
+      boolean sawMigration = false;
+      for (int i = 0; i < 200; i++) {
+        ht.put("k" + i, i);
+        sawMigration |= ht.isRehashing();
+        // Every key written so far is visible, whichever array it sits in
+        for (int j = 0; j <= i; j += 7)
+          assertEquals(j, ht.get("k" + j));
+      }
+      assertTrue(sawMigration);
+
+      // Overwrites and removes reach keys that were not migrated yet
+      assertEquals(5, ht.remove("k5"));
+      ht.put("k6", 600);
+      assertNull(ht.get("k5"));
+      assertEquals(600, ht.get("k6"));
+      assertEquals(199, ht.header().entryCount());
+      assertEquals(199, ht.getKeys().size());
+
+      while (ht.isRehashing())
+        ht.remove("absent"); // each write drains another batch
+      assertFalse(Files.exists(next));
+    } finally {
+      Files.deleteIfExists(f);
+      Files.deleteIfExists(next);
+    }
+  }
+
+  @Test
+  void interrupted_incremental_rehash_resumes_on_reopen() throws Exception {
+    Path f = temp("resume");
+    Path next = Path.of(f + ".next");
+    try {
+      try (var ht = newIncrementalTable(f, 8)) {
+        int i = 0;
+        while (!ht.isRehashing() || i < 7)
+          ht.put("k" + i, i++);
+        assertTrue(ht.isRehashing());
+      }
+      assertTrue(Files.exists(next));
+
+      try (var ht = newTable(f, 8)) {
+        assertTrue(ht.isRehashing());
+        int count = ht.header().entryCount();
+        for (int i = 0; i < count; i++)
+          assertEquals(i, ht.get("k" + i));
+        ht.clear(); // finishes the migration first
+        assertFalse(ht.isRehashing());
+        assertFalse(Files.exists(next));
+      }
+    } finally {
+      Files.deleteIfExists(f);
+      Files.deleteIfExists(next);
+    }
+  }
+
+  @Test
+  void memory_segment_backend_survives_both_rehash_modes() throws Exception {
+    Path f = temp("segments");
+    Path next = Path.of(f + ".next");
+    var codec = new EntrySerializer<String, Integer>(new StringSerializer(32), new IntSerializer());
+    try {
+      for (RehashMode mode : RehashMode.values()) {
+        var options = Options.DEFAULTS.withRehashMode(mode).withBackend(DiskArray.Backend.MEMORY_SEGMENT);
+        try (var ht = new DBTableMap<>(f, 4, codec, hf(), options)) {
+          ht.clear();
+          for (int i = 0; i < 100; i++)
+            ht.put("k" + i, i);
+          while (ht.isRehashing())
+            ht.remove("absent");
+          for (int i = 0; i < 100; i++)
+            assertEquals(i, ht.get("k" + i));
+        }
+        try (var ht = newTable(f, 4)) {
+          assertEquals(100, ht.header().entryCount());
+          assertEquals(42, ht.get("k42"));
+        }
+      }
+    } finally {
+      Files.deleteIfExists(f);
+      Files.deleteIfExists(next);
+    }
+  }
+
+  private DBTableMap<String, Integer> newLoggedTable(Path file, int cap, RehashMode mode) throws Exception {
+    var codec = new EntrySerializer<String, Integer>(new StringSerializer(32), new IntSerializer());
+    var options = Options.DEFAULTS.withDurability(Durability.WAL).withRehashMode(mode).withMigrationBatch(2);
+    return new DBTableMap<>(file, cap, codec, hf(), options);
+  }
+
+  @Test
+  void wal_replays_writes_the_table_file_never_got() throws Exception {
+    for (RehashMode mode : RehashMode.values()) {
+      Path f = temp("wal");
+      Path crashed = temp("wal_crashed");
+      try {
+        try (var ht = newLoggedTable(f, 4, mode)) {
+          ht.put("kept", 1);
+          ht.put("gone", 2);
+          for (int i = 0; i < 3; i++) // starts a migration in incremental mode
+            ht.put("old" + i, i);
+          ht.checkpoint();
+          // The files as of the checkpoint: nothing after it reached the disk
+          Files.copy(f, crashed, StandardCopyOption.REPLACE_EXISTING);
+          if (Files.exists(Path.of(f + ".next")))
+            Files.copy(Path.of(f + ".next"), Path.of(crashed + ".next"));
+
+          for (int i = 0; i < 20; i++) // grows the table
+            ht.put("k" + i, i);
+          ht.remove("gone");
+          ht.replace("kept", 10);
+          Files.copy(Path.of(f + ".wal"), Path.of(crashed + ".wal"));
+        }
+        assertEquals(0, Files.size(Path.of(f + ".wal"))); // clean close leaves nothing to replay
+
+        // A torn record at the tail is ignored
+        Files.write(Path.of(crashed + ".wal"), new byte[] { 1, 2, 3 }, StandardOpenOption.APPEND);
+
+        try (var ht = newLoggedTable(crashed, 4, mode)) {
+          assertTrue(ht.recovered());
+          assertEquals(10, ht.get("kept"));
+          assertNull(ht.get("gone"));
+          for (int i = 0; i < 3; i++)
+            assertEquals(i, ht.get("old" + i));
+          for (int i = 0; i < 20; i++)
+            assertEquals(i, ht.get("k" + i));
+          assertEquals(24, ht.header().entryCount());
+          assertEquals(25, ht.header().serialCount());
+          assertEquals(24, ht.getKeys().size());
+        }
+        try (var ht = newLoggedTable(crashed, 4, mode)) {
+          assertFalse(ht.recovered());
+          assertEquals(24, ht.header().entryCount());
+        }
+      } finally {
+        for (Path p : new Path[] { f, crashed })
+          for (String ext : new String[] { "", ".wal", ".next" })
+            Files.deleteIfExists(Path.of(p + ext));
+      }
+    }
+  }
+
+  /** Descriptors of this process open on {@code file} (Linux only). */
+  private static long openDescriptors(Path file) throws IOException {
+    Path real = file.toRealPath();
+    try (var fds = Files.list(Path.of("/proc/self/fd"))) {
+      return fds.filter(fd -> {
+        try {
+          return Files.readSymbolicLink(fd).equals(real);
+        } catch (IOException | UnsupportedOperationException e) {
+          return false;
+        }
+      }).count();
+    }
+  }
+
+  @Test
+  void failing_to_open_the_log_closes_the_table_file() throws Exception {
+    org.junit.jupiter.api.Assumptions.assumeTrue(Files.isDirectory(Path.of("/proc/self/fd")));
+    Path f = temp("wal_open_fails");
+    Path wal = Path.of(f + ".wal");
+    try {
+      // A directory where the log should be cannot be opened as a file
+      Files.createDirectory(wal);
+      var codec = new EntrySerializer<String, Integer>(new StringSerializer(32), new IntSerializer());
+      var options = Options.DEFAULTS.withDurability(Durability.WAL);
+      assertThrows(IOException.class, () -> new DBTableMap<>(f, 8, codec, hf(), options));
+      assertEquals(0, openDescriptors(f));
+    } finally {
+      Files.deleteIfExists(wal);
+      Files.deleteIfExists(f);
+    }
+  }
+
+  @Test
+  void wal_group_commit_keeps_every_concurrent_write() throws Exception {
+    Path f = temp("wal_group");
+    try {
+      var codec = new EntrySerializer<String, Integer>(new StringSerializer(32), new IntSerializer());
+      var options = Options.DEFAULTS.withDurability(Durability.WAL).withGroupCommitMicros(200);
+      try (var ht = new DBTableMap<>(f, 8, codec, hf(), options)) {
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+          int base = t * 100;
+          writers[t] = new Thread(() -> {
+            for (int i = base; i < base + 100; i++)
+              ht.put("k" + i, i);
+          });
+          writers[t].start();
+        }
+        for (Thread w : writers)
+          w.join();
+        assertEquals(400, ht.header().entryCount());
+      }
+      try (var ht = newLoggedTable(f, 8, RehashMode.STOP_THE_WORLD)) {
+        for (int i = 0; i < 400; i++)
+          assertEquals(i, ht.get("k" + i));
+      }
+    } finally {
+      Files.deleteIfExists(f);
+      Files.deleteIfExists(Path.of(f + ".wal"));
+    }
+  }
+
+  /** Size of the array new writes go to: the migration target while there is one. */
+  private static long newestFileSize(Path f) throws IOException {
+    Path next = Path.of(f + ".next");
+    return Files.size(Files.exists(next) ? next : f);
+  }
+
+  @Test
+  void batch_applies_every_write_and_reserve_avoids_rehash() throws Exception {
+    for (RehashMode mode : RehashMode.values()) {
+      Path f = temp("batch");
+      try {
+        try (var ht = newLoggedTable(f, 4, mode)) {
+          ht.put("a", 1);
+          ht.reserve(100);
+          long reserved = newestFileSize(f);
+          ht.batch(b -> {
+            for (int i = 0; i < 100; i++)
+              assertTrue(b.putIfAbsent("k" + i, i));
+            assertFalse(b.putIfAbsent("a", 9));
+            assertTrue(b.replace("a", 2));
+            assertEquals(2, b.get("a"));
+            assertEquals(0, b.remove("k0"));
+            assertNull(b.remove("missing"));
+            assertEquals(100, b.header().entryCount());
+            assertEquals(101, b.header().serialCount());
+          });
+          assertEquals(reserved, newestFileSize(f)); // no growth during the batch
+          assertEquals(100, ht.header().entryCount());
+          assertEquals(101, ht.header().serialCount());
+          assertEquals(2, ht.get("a"));
+          assertNull(ht.get("k0"));
+          assertEquals(99, ht.get("k99"));
+        }
+        try (var ht = newLoggedTable(f, 4, mode)) {
+          assertEquals(100, ht.header().entryCount());
+          assertEquals(100, ht.getKeys().size());
+        }
+      } finally {
+        for (String ext : new String[] { "", ".wal", ".next" })
+          Files.deleteIfExists(Path.of(f + ext));
+      }
+    }
+  }
+
+  @Test
+  void robin_hood_matches_a_map_through_inserts_and_deletes() throws Exception {
+    for (RehashMode mode : RehashMode.values()) {
+      Path f = temp("robinhood");
+      var codec = new EntrySerializer<String, Integer>(new StringSerializer(32), new IntSerializer());
+      var options = Options.DEFAULTS.withProbing(Probing.ROBIN_HOOD).withRehashMode(mode).withMigrationBatch(2);
+      var expected = new java.util.HashMap<String, Integer>();
+      var rnd = new java.util.Random(17);
+      try {
+        try (var ht = new DBTableMap<>(f, 8, codec, hf(), options)) {
+          for (int i = 0; i < 3000; i++) {
+            String k = "k" + rnd.nextInt(400);
+            if (rnd.nextInt(3) == 0) {
+              assertEquals(expected.remove(k), ht.remove(k));
+            } else {
+              ht.put(k, i);
+              expected.put(k, i);
+            }
+          }
+          for (int i = 0; i < 400; i++)
+            assertEquals(expected.get("k" + i), ht.get("k" + i));
+          assertEquals(expected.size(), ht.header().entryCount());
+
+          if (!ht.isRehashing()) {
+            var stats = ht.probeStats();
+            assertEquals(0, stats.tombstones());
+            assertEquals(expected.size(), stats.entries());
+            assertTrue(stats.meanProbeLength() >= 1 && stats.maxProbeLength() >= stats.meanProbeLength());
+          }
+        }
+        try (var ht = new DBTableMap<>(f, 8, codec, hf(), options)) {
+          for (var e : expected.entrySet())
+            assertEquals(e.getValue(), ht.get(e.getKey()));
+          assertEquals(expected.size(), ht.getKeys().size());
+        }
+      } finally {
+        Files.deleteIfExists(f);
+        Files.deleteIfExists(Path.of(f + ".next"));
+      }
+    }
+  }
+
+  @Test
+  void probe_stats_show_linear_tombstones_and_robin_hood_has_none() throws Exception {
+    Path f = temp("probestats");
+    try (var ht = newTable(f, 64)) {
+      for (int i = 0; i < 40; i++)
+        ht.put("k" + i, i);
+      for (int i = 0; i < 40; i += 2)
+        ht.remove("k" + i);
+      var stats = ht.probeStats();
+      assertEquals(20, stats.entries());
+      assertEquals(20, stats.tombstones());
+      assertEquals(64, stats.capacity());
+    } finally {
+      Files.deleteIfExists(f);
+    }
+
+    var codec = new EntrySerializer<String, Integer>(new StringSerializer(32), new IntSerializer());
+    try (var ht = new DBTableMap<>(f, 64, codec, hf(), Options.DEFAULTS.withProbing(Probing.ROBIN_HOOD))) {
+      for (int i = 0; i < 40; i++)
+        ht.put("k" + i, i);
+      for (int i = 0; i < 40; i += 2)
+        ht.remove("k" + i);
+      assertEquals(0, ht.probeStats().tombstones());
+      assertEquals(20, ht.probeStats().entries());
+    } finally {
+      Files.deleteIfExists(f);
+    }
+
+    assertThrows(IllegalArgumentException.class,
+        () -> Options.DEFAULTS.withDurability(Durability.WAL).withProbing(Probing.ROBIN_HOOD));
+  }
+
+  @Test
+  void vacuum_drops_tombstones_and_keeps_entries() throws Exception {
+    Path f = temp("vacuum");
+    try {
+      try (var ht = newTable(f, 64)) {
+        for (int i = 0; i < 40; i++)
+          ht.put("k" + i, i);
+        for (int i = 0; i < 40; i += 2)
+          ht.remove("k" + i);
+        assertEquals(20, ht.tombstones());
+
+        assertEquals(20, ht.vacuum());
+        assertFalse(ht.isRehashing());
+        assertEquals(0, ht.tombstones());
+        assertEquals(0, ht.probeStats().tombstones());
+        assertEquals(64, ht.probeStats().capacity());
+        assertEquals(0, ht.vacuum());
+        for (int i = 0; i < 40; i++)
+          assertEquals(i % 2 == 0 ? null : i, ht.get("k" + i));
+        ht.remove("k1");
+      }
+      assertFalse(Files.exists(Path.of(f + ".next")));
+      try (var ht = newTable(f, 64)) {
+        assertEquals(1, ht.tombstones()); // counted again on open
+        assertEquals(19, ht.header().entryCount());
+      }
+    } finally {
+      Files.deleteIfExists(f);
+    }
+  }
+
+  @Test
+  void removes_past_the_threshold_vacuum_in_the_background() throws Exception {
+    Path f = temp("vacuum_bg");
+    var codec = new EntrySerializer<String, Integer>(new StringSerializer(32), new IntSerializer());
+    var options = Options.DEFAULTS.withDurability(Durability.WAL).withVacuumThreshold(0.25);
+    try {
+      try (var ht = new DBTableMap<>(f, 64, codec, hf(), options)) {
+        for (int i = 0; i < 40; i++)
+          ht.put("k" + i, i);
+        for (int i = 0; i < 15; i++)
+          ht.remove("k" + i);
+        assertEquals(15, ht.tombstones());
+        ht.remove("k15"); // 16 of 64 slots
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (ht.isRehashing() && System.nanoTime() < deadline)
+          Thread.sleep(1);
+        assertFalse(ht.isRehashing());
+        assertEquals(0, ht.tombstones());
+        assertEquals(24, ht.header().entryCount());
+      }
+      try (var ht = new DBTableMap<>(f, 64, codec, hf(), options)) {
+        for (int i = 0; i < 40; i++)
+          assertEquals(i < 16 ? null : i, ht.get("k" + i));
+        assertEquals(0, ht.tombstones());
+      }
+    } finally {
+      for (String ext : new String[] { "", ".wal", ".next" })
+        Files.deleteIfExists(Path.of(f + ext));
+    }
+  }
+
+  @Test
+  void metrics_track_load_rehashes_and_mapping() throws Exception {
+    Path f = temp("metrics");
+    try (var ht = newTable(f, 8)) {
+      var m = ht.metrics();
+      assertEquals(0, m.rehashes());
+      assertEquals(0.0, m.loadFactor());
+      assertEquals(0, m.probes().maxProbeLength());
+
+      for (int i = 0; i < 20; i++)
+        ht.put("k" + i, i);
+      ht.remove("k0");
+      m = ht.metrics();
+      assertEquals(2, m.rehashes()); // 8 -> 16 -> 32
+      assertTrue(m.rehashNanos() > 0);
+      assertFalse(m.rehashing());
+      assertEquals(19.0 / 32, m.loadFactor(), 1e-9);
+      assertEquals(1, m.probes().tombstones());
+      assertEquals(19, m.probes().entries());
+      assertTrue(m.probes().maxProbeLength() >= 1);
+      assertTrue(m.mappedBytes() >= 32L * (4 + 32 + 4));
+
+      ht.vacuum();
+      assertEquals(1, ht.metrics().vacuums());
+    } finally {
+      Files.deleteIfExists(f);
+    }
+  }
+
+  @Test
+  void int_key_lookups_match_boxed_ones_in_every_mode() throws Exception {
+    for (Probing probing : Probing.values()) {
+      for (RehashMode mode : RehashMode.values()) {
+        Path f = temp("intkey");
+        var options = Options.DEFAULTS.withProbing(probing).withRehashMode(mode).withMigrationBatch(2);
+        var expected = new java.util.HashMap<Integer, String>();
+        var rnd = new java.util.Random(23);
+        try (var ht = new IntKeyDBTableMap<>(f, 8, new StringSerializer(16), k -> k * 31, options)) {
+          for (int i = 0; i < 3000; i++) {
+            int k = rnd.nextInt(500) - 250;
+            if (rnd.nextInt(3) == 0) {
+              assertEquals(expected.remove(k), ht.remove(k));
+            } else {
+              ht.put(k, "v" + i);
+              expected.put(k, "v" + i);
+            }
+            // Every few writes, check while a migration may be half done
+            if (i % 97 == 0) {
+              for (int q = -260; q < 260; q++) {
+                assertEquals(expected.get(q), ht.getInt(q), probing + " " + mode + " key " + q);
+                assertEquals(expected.containsKey(q), ht.containsInt(q));
+                assertEquals(ht.get(q), ht.getInt(q));
+              }
+            }
+          }
+        } finally {
+          Files.deleteIfExists(f);
+          Files.deleteIfExists(Path.of(f + ".next"));
+        }
+      }
+    }
+  }
+
+  @Test
+  void int_key_contains_allocates_nothing() throws Exception {
+    var threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+    Path f = temp("intalloc");
+    try (var ht = new IntKeyDBTableMap<>(f, 1024, new IntSerializer(), k -> k)) {
+      for (int i = 0; i < 500; i++)
+        ht.put(i * 3, i);
+      for (int i = 0; i < 20_000; i++)
+        ht.containsInt(i);
+
+      long tid = Thread.currentThread().getId();
+      long before = threads.getThreadAllocatedBytes(tid);
+      int hits = 0;
+      for (int i = 0; i < 20_000; i++)
+        if (ht.containsInt(i % 1500))
+          hits++;
+      long allocated = threads.getThreadAllocatedBytes(tid) - before;
+      assertEquals(20_000 / 3 + 1, hits);
+      // Some slack for the measuring itself, far below one object per call
+      assertTrue(allocated < 4096, allocated + " bytes");
+    } finally {
+      Files.deleteIfExists(f);
+    }
+  }
+
+  @Test
+  void views_read_values_in_place_and_scans_keep_non_null_results() throws Exception {
+    Path f = temp("views");
+    var options = Options.DEFAULTS.withRehashMode(RehashMode.INCREMENTAL).withMigrationBatch(2);
+    try (var ht = new IntKeyDBTableMap<>(f, 8, new StringSerializer(16), k -> k, options)) {
+      for (int i = 0; i < 100; i++)
+        ht.put(i, (i % 2 == 0 ? "even" : "odd") + i);
+      ht.remove(4);
+
+      // First byte of the value only
+      FieldReader<Character> initial = (buf, pos) -> (char) buf.get(pos);
+      assertEquals('o', ht.view(7, initial));
+      assertEquals('e', ht.viewInt(8, initial));
+      assertNull(ht.view(4, initial));
+      assertNull(ht.viewInt(1000, initial));
+
+      FieldReader<String> evens = (buf, pos) -> buf.get(pos) == 'e' ? new StringSerializer(16).read(buf, pos) : null;
+      // The last growth is still draining, so the scan covers both arrays
+      assertTrue(ht.isRehashing());
+      var found = new java.util.TreeSet<String>();
+      for (String v : ht.scanValues(evens))
+        assertTrue(found.add(v), "seen twice: " + v);
+      assertEquals(49, found.size());
+      assertTrue(found.contains("even98") && !found.contains("even4"));
+    } finally {
+      Files.deleteIfExists(f);
+      Files.deleteIfExists(Path.of(f + ".next"));
+    }
+  }
+
+  @Test
+  void parallel_scan_matches_sequential_scan_in_slot_order() throws Exception {
+    Path f = temp("parallel");
+    var options = Options.DEFAULTS.withRehashMode(RehashMode.INCREMENTAL).withMigrationBatch(2);
+    try (var ht = new IntKeyDBTableMap<>(f, 1024, new IntSerializer(), k -> k * 7, options)) {
+      for (int i = 0; i < 60_000; i++)
+        ht.put(i, i);
+      for (int i = 0; i < 60_000; i += 3)
+        ht.remove(i);
+      // Both arrays are scanned, in chunks that each get their own reader
+      assertTrue(ht.isRehashing());
+
+      var sequential = ht.getValues();
+      var readers = new java.util.concurrent.atomic.AtomicInteger();
+      var parallel = ht.parallelScanValues(() -> {
+        readers.incrementAndGet();
+        Thread[] owner = { null };
+        return (buf, pos) -> {
+          if (owner[0] == null)
+            owner[0] = Thread.currentThread();
+          assertSame(owner[0], Thread.currentThread());
+          return buf.getInt(pos);
+        };
+      });
+      assertTrue(readers.get() > 1, "readers " + readers.get());
+      assertEquals(40_000, parallel.size());
+      assertEquals(sequential.size(), parallel.size());
+      for (int i = 0; i < sequential.size(); i++)
+        assertEquals(sequential.get(i), parallel.get(i));
+
+      var all = ht.parallelGetValues();
+      assertEquals(40_000, all.size());
+      assertEquals(sequential.first(), all.first());
+      assertEquals(sequential.last(), all.last());
+    } finally {
+      Files.deleteIfExists(f);
+      Files.deleteIfExists(Path.of(f + ".next"));
+    }
+  }
+
+  @Test
+  void cursor_sees_the_table_as_it_was_when_opened() throws Exception {
+    for (RehashMode mode : RehashMode.values()) {
+      for (Probing probing : Probing.values()) {
+        Path f = temp("cursor");
+        var options = Options.DEFAULTS.withRehashMode(mode).withProbing(probing).withMigrationBatch(2);
+        try (var ht = new IntKeyDBTableMap<>(f, 16, new IntSerializer(), k -> k, options)) {
+          for (int i = 0; i < 3000; i++)
+            ht.put(i, i);
+          for (int i = 0; i < 3000; i += 5)
+            ht.remove(i);
+          var expected = new java.util.TreeMap<Integer, Integer>();
+          for (int i = 0; i < 3000; i++)
+            if (i % 5 != 0)
+              expected.put(i, i);
+
+          var seen = new java.util.TreeMap<Integer, Integer>();
+          try (var c = ht.cursor()) {
+            int step = 0;
+            while (c.next()) {
+              assertNull(seen.put(c.key(), c.value()), "twice: " + c.key());
+              // Writes of every kind land mid-walk, growth included
+              if (step++ % 50 == 0) {
+                ht.put(5000 + step, -1);
+                ht.replace(step % 3000, -2);
+                ht.remove((step * 7) % 3000);
+              }
+              if (step == 1000)
+                ht.vacuum();
+            }
+          }
+          assertEquals(expected, seen, probing + " " + mode);
+
+          // A cursor opened mid-migration covers both arrays
+          ht.put(10_000, 10_000);
+          try (var c = ht.cursor()) {
+            ht.clear();
+            int n = 0;
+            while (c.next())
+              n++;
+            assertTrue(n > 0);
+          }
+          try (var c = ht.cursor()) {
+            assertThrows(java.util.NoSuchElementException.class, c::key);
+            assertFalse(c.next());
+          }
+        } finally {
+          Files.deleteIfExists(f);
+          Files.deleteIfExists(Path.of(f + ".next"));
+        }
+      }
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void cursor_keeps_a_page_written_right_after_it_found_no_saved_copy() throws Exception {
+    Path f = temp("cursorrace");
+    try (var ht = new IntKeyDBTableMap<>(f, 1024, new IntSerializer(), k -> k)) {
+      for (int i = 0; i < 600; i++)
+        ht.put(i, i);
+
+      var c = ht.cursor();
+      // The writer runs the moment the cursor finds no saved copy of the second
+      // page, i.e. between that look and its read of the live slots
+      java.lang.reflect.Field savedField = c.getClass().getDeclaredField("saved");
+      savedField.setAccessible(true);
+      var racing = new java.util.concurrent.ConcurrentHashMap<Long, Object>() {
+        private boolean done;
+
+        @Override
+        public Object get(Object key) {
+          Object copy = super.get(key);
+          if (copy == null && (Long) key == 1L && !done) {
+            done = true;
+            ht.remove(300);
+          }
+          return copy;
+        }
+      };
+      savedField.set(c, racing);
+
+      var seen = new java.util.TreeSet<Integer>();
+      try (c) {
+        while (c.next())
+          assertTrue(seen.add(c.key()), "twice: " + c.key());
+      }
+      assertTrue(racing.done);
+      assertEquals(600, seen.size(), "the removed key was in the snapshot");
+      assertTrue(seen.contains(300));
+    } finally {
+      Files.deleteIfExists(f);
+    }
+  }
+
+  @Test
+  void cursor_is_consistent_while_another_thread_writes() throws Exception {
+    Path f = temp("cursorthreads");
+    var options = Options.DEFAULTS.withRehashMode(RehashMode.INCREMENTAL).withMigrationBatch(4);
+    try (var ht = new IntKeyDBTableMap<>(f, 64, new IntSerializer(), k -> k, options)) {
+      int n = 5_000;
+      for (int i = 0; i < n; i++)
+        ht.put(i, i);
+
+      for (int round = 0; round < 3; round++) {
+        int base = (round + 1) * 100_000;
+        var expected = new java.util.HashMap<Integer, Integer>();
+        for (int k : ht.getKeys())
+          expected.put(k, ht.getInt(k));
+        var c = ht.cursor();
+        var writer = new Thread(() -> {
+          var rnd = new java.util.Random(base);
+          for (int i = 0; i < 5000; i++) {
+            int k = rnd.nextInt(n);
+            switch (rnd.nextInt(3)) {
+              case 0 -> ht.replace(k, ht.getInt(k) == null ? k : -ht.getInt(k));
+              case 1 -> ht.put(base + i, base + i);
+              default -> ht.remove(rnd.nextBoolean() ? k : base + rnd.nextInt(i + 1));
+            }
+          }
+        });
+        writer.start();
+        var seen = new java.util.HashMap<Integer, Integer>();
+        try (c) {
+          while (c.next())
+            assertNull(seen.put(c.key(), c.value()), "twice: " + c.key());
+        }
+        writer.join();
+        assertEquals(expected, seen, "round " + round);
+      }
+    } finally {
+      Files.deleteIfExists(f);
+      Files.deleteIfExists(Path.of(f + ".next"));
+    }
+  }
 }
@@ -3,7 +3,7 @@ package store.online;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -50,7 +50,7 @@ class DiskArrayTest {
     } // two ints
 
     @Override
-    public void write(MappedByteBuffer buf, int pos, MyHeader h) {
+    public void write(ByteBuffer buf, int pos, MyHeader h) {
       if (h == null)
         h = new MyHeader();
       buf.putInt(pos, h.version);
@@ -58,7 +58,7 @@ class DiskArrayTest {
     }
 
     @Override
-    public MyHeader read(MappedByteBuffer buf, int pos) {
+    public MyHeader read(ByteBuffer buf, int pos) {
       MyHeader h = new MyHeader();
       h.version = buf.getInt(pos);
       h.dirty = buf.getInt(pos + 4);
@@ -213,7 +213,7 @@ class DiskArrayTest {
       }
 
       @Override
-      public void write(MappedByteBuffer buf, int pos, MyHeader h) {
+      public void write(ByteBuffer buf, int pos, MyHeader h) {
         if (h == null)
           h = new MyHeader();
         buf.putInt(pos, h.version);
@@ -224,7 +224,7 @@ class DiskArrayTest {
       }
 
       @Override
-      public MyHeader read(MappedByteBuffer buf, int pos) {
+      public MyHeader read(ByteBuffer buf, int pos) {
         MyHeader h = new MyHeader();
         h.version = buf.getInt(pos);
         h.dirty = buf.getInt(pos + 4);
@@ -269,4 +269,53 @@ class DiskArrayTest {
       assertEquals(12, da.get(5));
     }
   }
+
+  @Test
+  void segmented_mapping_spans_segments_grows_and_reopens() throws Exception {
+    Path f = temp("da_segments");
+    // 16-byte segments -> 4 ints per segment
+    try (var da = new DiskArray<MyHeader, Integer>(f, 6, new MyHeaderCodec(), I32, 16)) {
+      da.setHeader(new MyHeader(2, 0));
+      for (int i = 0; i < 6; i++)
+        da.set(i, i * 10);
+
+      da.grow(11); // remaps the partial segment, maps two more
+      for (int i = 6; i < 11; i++)
+        da.set(i, i * 10);
+      assertEquals(11, da.capacity());
+      assertThrows(IndexOutOfBoundsException.class, () -> da.get(11));
+    }
+    // Reopen with the default segment size: the file layout is the same
+    try (var da = new DiskArray<MyHeader, Integer>(f, 1, new MyHeaderCodec(), I32)) {
+      assertEquals(11, da.capacity());
+      assertEquals(2, da.header().version);
+      for (int i = 0; i < 11; i++)
+        assertEquals(i * 10, da.get(i));
+      assertEquals(4 + 8 + 11 * 4, da.mappedBytes());
+    }
+  }
+
+  @Test
+  void memorySegmentBackend_readsWritesGrows_andUnmapsOnClose() throws Exception {
+    Path f = temp("da_ffm");
+    var da = new DiskArray<MyHeader, Integer>(f, 5, new MyHeaderCodec(), I32, 16, DiskArray.Backend.MEMORY_SEGMENT);
+    da.setHeader(new MyHeader(7, 0));
+    for (int i = 0; i < 5; i++)
+      da.set(i, i + 100);
+    da.grow(9);
+    da.set(8, 108);
+    assertEquals(104, da.get(4));
+    da.close();
+
+    // Released deterministically: no stale access to the old mapping
+    assertThrows(IllegalStateException.class, () -> da.get(0));
+
+    // Same file layout as the buffer backend
+    try (var reopened = new DiskArray<MyHeader, Integer>(f, 1, new MyHeaderCodec(), I32)) {
+      assertEquals(9, reopened.capacity());
+      assertEquals(7, reopened.header().version);
+      assertEquals(100, reopened.get(0));
+      assertEquals(108, reopened.get(8));
+    }
+  }
 }
@@ -0,0 +1,96 @@
+package store.online;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import store.online.db.FieldMatch;
+import store.online.db.IntKeyDBTableMap;
+import store.online.db.FixedSizeSerializer.*;
+
+class FieldMatchTest {
+
+  private static final int WIDTH = 16;
+  private static final StringSerializer CODEC = new StringSerializer(WIDTH);
+
+  @Test
+  void byte_matches_agree_with_decoded_strings() {
+    String[] values = { "", "a", "Laptop", "laptop pro 15in", "exactly16bytes!!", "Café Crème", "ÜBER",
+        "straße", "KETTLE", "\u212AETTLE", "\u0130stanbul", "日本語のテキスト" };
+    String[] queries = { "", "a", "lap", "LAP", "laptop", "pro", "exactly16bytes!!", "exactly16bytes!!x", "café",
+        "crème", "über", "ße", "kettle", "ttl", "stan", "istanbul", "本語", "z" };
+    ByteBuffer buf = ByteBuffer.allocate(8 + WIDTH);
+    for (String v : values) {
+      CODEC.write(buf, 8, v);
+      String stored = CODEC.read(buf, 8);
+      for (String q : queries) {
+        String what = "'" + stored + "' vs '" + q + "'";
+        assertEquals(stored.equals(q), FieldMatch.equalTo(8, WIDTH, q).test(buf, 0), "equal " + what);
+        assertEquals(stored.startsWith(q), FieldMatch.startsWith(8, WIDTH, q).test(buf, 0), "prefix " + what);
+        assertEquals(stored.toLowerCase().contains(q.toLowerCase()),
+            FieldMatch.containsIgnoreCase(8, WIDTH, q).test(buf, 0), "contains " + what);
+      }
+    }
+  }
+
+  @Test
+  void random_ascii_contains_matches_string_search() {
+    Random rnd = new Random(5);
+    ByteBuffer buf = ByteBuffer.allocate(WIDTH);
+    for (int n = 0; n < 5000; n++) {
+      String v = randomAscii(rnd, rnd.nextInt(WIDTH + 1));
+      String q = rnd.nextBoolean() && v.length() > 2 ? v.substring(1, 1 + rnd.nextInt(v.length() - 1))
+          : randomAscii(rnd, 1 + rnd.nextInt(3));
+      if (rnd.nextBoolean())
+        q = q.toUpperCase();
+      CODEC.write(buf, 0, v);
+      assertEquals(v.toLowerCase().contains(q.toLowerCase()), FieldMatch.containsIgnoreCase(0, WIDTH, q).test(buf, 0),
+          v + " / " + q);
+    }
+  }
+
+  @Test
+  void table_scan_decodes_only_matching_values() throws Exception {
+    Path f = Files.createTempFile("fieldmatch", ".mmap");
+    try (var ht = new IntKeyDBTableMap<>(f, 64, new StringSerializer(WIDTH), k -> k)) {
+      for (int i = 0; i < 40; i++)
+        ht.put(i, (i % 4 == 0 ? "Kettle " : "mug ") + i);
+
+      assertEquals(10, ht.scanValues(FieldMatch.containsIgnoreCase(0, WIDTH, "KETTLE")).size());
+      assertEquals(java.util.List.of("mug 7"), toJava(ht.scanValues(FieldMatch.equalTo(0, WIDTH, "mug 7"))));
+      assertEquals(9, ht.scanValues(FieldMatch.startsWith(0, WIDTH, "mug 1")).size()); // 1, 10-19 but 12 and 16
+
+      int[] decoded = { 0 };
+      var lengths = ht.scanValues(FieldMatch.startsWith(0, WIDTH, "Kettle 3"), (b, pos) -> {
+        decoded[0]++;
+        return CODEC.read(b, pos).length();
+      });
+      assertEquals(java.util.List.of(9, 9), toJava(lengths)); // 32 and 36
+      assertEquals(2, decoded[0]);
+    } finally {
+      Files.deleteIfExists(f);
+    }
+  }
+
+  // -------- helpers --------
+
+  private static String randomAscii(Random rnd, int n) {
+    StringBuilder sb = new StringBuilder(n);
+    for (int i = 0; i < n; i++)
+      sb.append("abcABC xyz".charAt(rnd.nextInt(10)));
+    return sb.toString();
+  }
+
+  private static <T> java.util.List<T> toJava(store.online.utils.list.List<T> list) {
+    java.util.List<T> out = new java.util.ArrayList<>();
+    for (T t : list)
+      out.add(t);
+    out.sort(null);
+    return out;
+  }
+}
@@ -0,0 +1,103 @@
+package store.online;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import store.online.db.DBTableMap;
+import store.online.db.DBTableMap.EntrySerializer;
+import store.online.db.DBTableMap.ProbeStats;
+import store.online.db.FixedSizeSerializer.*;
+import store.online.db.HashFunction;
+import store.online.db.Hashes;
+
+class HashesTest {
+
+  @Test
+  void murmur3_matches_reference_vectors() {
+    assertEquals(0, murmur("", 0));
+    assertEquals(0x514e28b7, murmur("", 1));
+    assertEquals(0x248bfa47, murmur("hello", 0));
+    assertEquals(0x2e4ff723, murmur("The quick brown fox jumps over the lazy dog", 0));
+  }
+
+  @Test
+  void string_hash_equals_hash_of_its_utf8_bytes() {
+    for (String s : new String[] { "", "a", "ab", "abc", "abcd", "user00042", "café", "ñandú del sur", "日本語",
+        "emoji 🙂 key" })
+      assertEquals(murmur(s, 7), Hashes.murmur3(s, 7), s);
+  }
+
+  @Test
+  void finalizers_avalanche() {
+    Random rnd = new Random(3);
+    int samples = 2000;
+    // flips[i][o]: how often flipping input bit i flipped output bit o
+    int[][] flips32 = new int[32][32];
+    int[][] flips64 = new int[64][32];
+    for (int n = 0; n < samples; n++) {
+      int x = rnd.nextInt();
+      long y = rnd.nextLong();
+      int hx = Hashes.mix32(x), hy = Hashes.mix64(y);
+      for (int i = 0; i < 32; i++) {
+        int d = hx ^ Hashes.mix32(x ^ (1 << i));
+        for (int o = 0; o < 32; o++)
+          flips32[i][o] += (d >>> o) & 1;
+      }
+      for (int i = 0; i < 64; i++) {
+        int d = hy ^ Hashes.mix64(y ^ (1L << i));
+        for (int o = 0; o < 32; o++)
+          flips64[i][o] += (d >>> o) & 1;
+      }
+    }
+    assertAvalanche(flips32, samples);
+    assertAvalanche(flips64, samples);
+  }
+
+  @Test
+  void murmur_keeps_probes_short_where_the_identity_hash_clusters() throws Exception {
+    // Strided ids share their low bits, which is all a power-of-two table uses
+    int[] strided = new int[1500];
+    for (int i = 0; i < strided.length; i++)
+      strided[i] = i * 1024;
+
+    ProbeStats identity = probes(strided, k -> k);
+    ProbeStats murmur = probes(strided, Hashes.MURMUR_INT);
+    assertTrue(identity.meanProbeLength() > 100, "identity " + identity);
+    assertTrue(murmur.meanProbeLength() < 2, "murmur " + murmur);
+    assertTrue(murmur.maxProbeLength() < 40, "murmur " + murmur);
+  }
+
+  // -------- helpers --------
+
+  private static int murmur(String s, int seed) {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    return Hashes.murmur3(b, 0, b.length, seed);
+  }
+
+  private static void assertAvalanche(int[][] flips, int samples) {
+    for (int i = 0; i < flips.length; i++)
+      for (int o = 0; o < flips[i].length; o++) {
+        double p = (double) flips[i][o] / samples;
+        assertTrue(p > 0.4 && p < 0.6, "input bit " + i + " flips output bit " + o + " with p=" + p);
+      }
+  }
+
+  /** Fills a table to half its capacity (no rehash) and scans its probes. */
+  private static ProbeStats probes(int[] keys, HashFunction<Integer> hash) throws Exception {
+    Path f = Files.createTempFile("hashes", ".mmap");
+    var codec = new EntrySerializer<Integer, Integer>(new IntSerializer(), new IntSerializer());
+    try (var ht = new DBTableMap<>(f, Integer.highestOneBit(keys.length) * 4, codec, hash)) {
+      for (int k : keys)
+        ht.put(k, k);
+      return ht.probeStats();
+    } finally {
+      Files.deleteIfExists(f);
+    }
+  }
+}
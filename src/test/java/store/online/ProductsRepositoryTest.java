@@ -9,9 +9,13 @@ import java.nio.file.Path;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import store.online.entities.Schema;
+import store.online.entities.Schema.Page;
 import store.online.entities.Schema.Product;
 import store.online.repository.ProductsRepository;
+import store.online.service.CatalogSnapshots;
 import store.online.service.ProductsService;
 import store.online.utils.list.List;
 
@@ -198,4 +202,403 @@ public class ProductsRepositoryTest {
     assertEquals(0, count(service.searchByName(" ")));
     assertEquals(0, count(service.searchByName(null)));
   }
+
+  @Test
+  void category_index_follows_updates_and_deletes() throws Exception {
+    newRepoAndService("products_category_index.db");
+
+    Product a = p("Wireless Headphones", "Electronics", 80.0f, "USD");
+    Product b = p("Clean Code", "Books", 38.0f, "USD");
+    Product c = p("Bluetooth Speaker", "Electronics", 25.0f, "USD");
+    assertTrue(repo.insertProduct(a));
+    assertTrue(repo.insertProduct(b));
+    assertTrue(repo.insertProduct(c));
+
+    // Lookup is case-insensitive
+    assertEquals(2, count(service.getProductsByCategory("electronics")));
+
+    // Move a product to another category
+    a.category = "Books";
+    assertTrue(repo.updateProduct(a));
+    assertEquals(1, count(service.getProductsByCategory("Electronics")));
+    assertEquals(2, count(service.getProductsByCategory("Books")));
+
+    // Deleted products leave their category
+    assertTrue(repo.deleteProduct(b.id));
+    List<Product> books = service.getProductsByCategory("Books");
+    assertEquals(1, count(books));
+    assertEquals(a.id, first(books).id);
+    assertEquals(0, count(service.getProductsByCategory("Toys")));
+  }
+
+  @Test
+  void index_keys_ignore_the_default_locale_and_keep_whole_characters() throws Exception {
+    newRepoAndService("products_index_keys.db");
+
+    java.util.Locale saved = java.util.Locale.getDefault();
+    java.util.Locale.setDefault(java.util.Locale.forLanguageTag("tr"));
+    try {
+      // Turkish lowers I to a dotless i
+      assertTrue(repo.insertProduct(p("LIGHT BULB", "LIGHTING", 3.0f, "USD")));
+      assertEquals(1, count(service.getProductsByCategory("lighting")));
+      assertEquals(1, count(service.searchByName("light")));
+    } finally {
+      java.util.Locale.setDefault(saved);
+    }
+
+    // Categories longer than the column share the key of their longest fitting
+    // prefix of whole characters, whatever their byte width
+    assertTrue(repo.insertProduct(p("Coin", "\u20ac".repeat(11), 1.0f, "EURO")));
+    assertEquals(1, count(service.getProductsByCategory("\u20ac".repeat(12))));
+    assertEquals(0, count(service.getProductsByCategory("\u20ac".repeat(9))));
+    assertTrue(repo.insertProduct(p("Accent", "\u00c9".repeat(20), 1.0f, "EURO")));
+    assertEquals(1, count(service.getProductsByCategory("\u00e9".repeat(16))));
+  }
+
+  @Test
+  void name_search_follows_updates_and_deletes() throws Exception {
+    newRepoAndService("products_name_index.db");
+
+    Product a = p("Clean Code", "Books", 38.0f, "USD");
+    Product b = p("Clean Architecture", "Books", 35.0f, "USD");
+    Product c = p("Coffee Table", "Furniture", 150.0f, "USD");
+    assertTrue(repo.insertProduct(a));
+    assertTrue(repo.insertProduct(b));
+    assertTrue(repo.insertProduct(c));
+
+    assertEquals(2, count(service.searchByName("CLEAN")));
+    assertEquals(1, count(service.searchByName("n co")));
+    assertEquals(0, count(service.searchByName("missing")));
+    assertEquals(2, count(service.searchByName("co"))); // shorter than a trigram
+
+    // Renamed product matches its new name only
+    a.name = "Refactoring";
+    assertTrue(repo.updateProduct(a));
+    assertEquals(1, count(service.searchByName("clean")));
+    assertEquals(a.id, first(service.searchByName("factor")).id);
+
+    // Renaming back does not duplicate results
+    a.name = "Clean Code";
+    assertTrue(repo.updateProduct(a));
+    assertEquals(2, count(service.searchByName("clean")));
+
+    // Deleted products are not returned
+    assertTrue(repo.deleteProduct(b.id));
+    List<Product> clean = service.searchByName("clean");
+    assertEquals(1, count(clean));
+    assertEquals(a.id, first(clean).id);
+  }
+
+  /** Posting key of a trigram, packed as ProductsRepository packs them. */
+  private static long trigram(String s) {
+    return ((long) s.charAt(0) << 32) | ((long) s.charAt(1) << 16) | s.charAt(2);
+  }
+
+  @Test
+  void deletes_and_renames_shrink_the_name_postings() throws Exception {
+    newRepoAndService("products_postings.db");
+
+    Product a = p("Clean Code", "Books", 38.0f, "USD");
+    Product b = p("Clean Architecture", "Books", 35.0f, "USD");
+    Product c = p("Clean Desk", "Home", 20.0f, "USD");
+    assertTrue(repo.insertProduct(a));
+    assertTrue(repo.insertProduct(b));
+    assertTrue(repo.insertProduct(c));
+
+    assertTrue(repo.deleteProduct(b.id));
+    List<Integer> batch = new store.online.utils.list.ArrayList<>();
+    batch.add(c.id);
+    assertArrayEquals(new boolean[] { true }, service.deleteAll(batch));
+    a.name = "Refactoring";
+    assertTrue(repo.updateProduct(a));
+    a.name = "Clean Code";
+    assertTrue(repo.updateProduct(a));
+    repo.close();
+
+    try (var names = new store.online.db.DBPostings<Long>(tmp.resolve("products_postings.name.db"), 4,
+        new store.online.db.FixedSizeSerializer.LongSerializer(), key -> Long.hashCode(key))) {
+      assertArrayEquals(new Object[] { a.id }, names.ids(trigram("cle")).toArray());
+      assertEquals(0, names.size(trigram("arc")), "deleted product is gone");
+      assertEquals(0, names.size(trigram("fac")), "old name is gone");
+    }
+  }
+
+  @Test
+  void getProduct_is_cached_and_invalidated_by_writes() throws Exception {
+    newRepoAndService("products_cache.db");
+
+    Product a = p("Desk Lamp", "Home", 25.0f, "USD");
+    assertTrue(repo.insertProduct(a));
+
+    assertEquals("Desk Lamp", service.getProduct(a.id).get().name);
+    Product hit = service.getProduct(a.id).get();
+    assertEquals(1, repo.cacheStats().misses());
+    assertEquals(1, repo.cacheStats().hits());
+
+    // Callers get their own copy
+    hit.name = "Changed by caller";
+    assertEquals("Desk Lamp", service.getProduct(a.id).get().name);
+
+    a.price = 30.0f;
+    assertTrue(repo.updateProduct(a));
+    assertEquals(30.0f, service.getProduct(a.id).get().price, 1e-6);
+
+    assertTrue(repo.deleteProduct(a.id));
+    assertTrue(service.getProduct(a.id).isEmpty());
+    assertEquals(3, repo.cacheStats().misses());
+  }
+
+  @Test
+  void catalog_snapshots_are_reused_until_the_table_changes() throws Exception {
+    newRepoAndService("products_snapshots.db");
+    var catalog = new CatalogSnapshots(repo, new ObjectMapper());
+
+    Product a = p("Desk Lamp", "Home", 25.0f, "USD");
+    Product b = p("Clean Code", "Books", 38.0f, "USD");
+    assertTrue(repo.insertProduct(a));
+    assertTrue(repo.insertProduct(b));
+
+    var all = catalog.all();
+    assertSame(all, catalog.all());
+    assertEquals(2, new ObjectMapper().readTree(all.json()).size());
+    var books = catalog.byCategory("BOOKS");
+    assertSame(books, catalog.byCategory("books"));
+    assertEquals("Clean Code", new ObjectMapper().readTree(books.json()).get(0).get("name").asText());
+
+    a.price = 30.0f;
+    assertTrue(repo.updateProduct(a));
+    var changed = catalog.all();
+    assertNotEquals(all.etag(), changed.etag());
+    // Same contents, same tag, even though the listing was rendered again
+    assertEquals(books.etag(), catalog.byCategory("books").etag());
+  }
+
+  @Test
+  void concurrent_writers_share_log_forces() throws Exception {
+    newRepoAndService("products_group_commit.db");
+    assertTrue(repo.insertProduct(p("Warm up", "Misc", 1.0f, "USD")));
+    var db = (store.online.db.DBTableMap<?, ?>) store.online.db.TableRegistry.shared().openTables()
+        .get(dbFile.toAbsolutePath());
+    long before = db.metrics().logForces();
+
+    int threads = 8, perThread = 48;
+    var start = new java.util.concurrent.CountDownLatch(1);
+    var pool = java.util.concurrent.Executors.newFixedThreadPool(threads);
+    try {
+      var results = new java.util.ArrayList<java.util.concurrent.Future<Boolean>>();
+      for (int t = 0; t < threads; t++) {
+        int base = t * perThread;
+        results.add(pool.submit(() -> {
+          start.await();
+          boolean ok = true;
+          for (int i = 0; i < perThread; i++)
+            ok &= repo.insertProduct(p("Item " + (base + i), "Cat " + (i % 4), i, "USD"));
+          return ok;
+        }));
+      }
+      start.countDown();
+      for (var r : results)
+        assertTrue(r.get(30, java.util.concurrent.TimeUnit.SECONDS));
+    } finally {
+      pool.shutdown();
+    }
+
+    // Every write is durable on return, yet they did not each force the log
+    long forces = db.metrics().logForces() - before;
+    assertTrue(forces > 0);
+    assertTrue(forces < threads * perThread, forces + " forces for " + threads * perThread + " inserts");
+    assertEquals(threads * perThread + 1, repo.getProducts().size());
+    assertEquals(threads * perThread / 4, repo.getProductsByCategory("cat 1").size());
+  }
+
+  @Test
+  void snapshot_version_is_published_after_index_maintenance() throws Exception {
+    newRepoAndService("products_snapshot_version.db");
+    assertTrue(repo.insertProduct(p("Desk Lamp", "Home", 25.0f, "USD")));
+    long v1 = repo.version();
+
+    // Writers hold the table handle's monitor until their indexes are updated;
+    // a table write in that window is not visible yet, and reading the version
+    // does not wait for the writer
+    @SuppressWarnings("unchecked")
+    var db = (store.online.db.IntKeyDBTableMap<Product>) store.online.db.TableRegistry.shared().openTables()
+        .get(dbFile.toAbsolutePath());
+    synchronized (db) {
+      Product raw = p("Not indexed yet", "Home", 1.0f, "USD");
+      raw.id = db.header().serialCount();
+      db.put(raw.id, raw);
+      var version = java.util.concurrent.CompletableFuture.supplyAsync(repo::version);
+      assertEquals(v1, version.get(5, java.util.concurrent.TimeUnit.SECONDS));
+    }
+
+    assertTrue(repo.insertProduct(p("Clean Code", "Books", 38.0f, "USD")));
+    assertTrue(repo.version() > v1);
+  }
+
+  /** Follows {@code next} cursors from the first page and collects every id. */
+  private static java.util.List<Integer> pageThrough(java.util.function.BiFunction<Integer, Integer, Page<Product>> pager,
+      int limit) {
+    java.util.List<Integer> ids = new java.util.ArrayList<>();
+    Integer after = -1;
+    while (after != null) {
+      Page<Product> page = pager.apply(after, limit);
+      assertTrue(page.items().size() <= limit);
+      for (Product p : page.items())
+        ids.add(p.id);
+      after = page.next();
+    }
+    return ids;
+  }
+
+  @Test
+  void keyset_pages_follow_id_order_for_all_filters() throws Exception {
+    newRepoAndService("products_pages.db");
+
+    for (int i = 0; i < 12; i++)
+      assertTrue(repo.insertProduct(p("Item " + i + (i % 3 == 0 ? " lamp" : ""), i % 2 == 0 ? "Even" : "Odd", i, "USD")));
+    assertTrue(repo.deleteProduct(4));
+    Product moved = service.getProduct(3).get();
+    moved.category = "Even";
+    assertTrue(repo.updateProduct(moved));
+
+    assertEquals(java.util.List.of(0, 1, 2, 3, 5, 6, 7, 8, 9, 10, 11),
+        pageThrough((after, limit) -> service.getPage(null, null, after, limit), 5));
+    assertEquals(java.util.List.of(0, 2, 3, 6, 8, 10),
+        pageThrough((after, limit) -> service.getPage("even", null, after, limit), 4));
+    assertEquals(java.util.List.of(0, 3, 6, 9),
+        pageThrough((after, limit) -> service.getPage(null, "LAMP", after, limit), 2));
+    assertEquals(java.util.List.of(1, 10, 11),
+        pageThrough((after, limit) -> service.getPage(null, "1", after, limit), 2));
+
+    // A cursor from a deleted product still resumes after it
+    Page<Product> afterDeleted = service.getPage(null, null, 4, 2);
+    assertEquals(5, afterDeleted.items().first().id);
+    assertEquals(6, afterDeleted.next());
+
+    // A cursor past the last id ends the listing instead of wrapping around
+    for (String q : new String[] { null, "1", "lamp" }) {
+      Page<Product> past = service.getPage(null, q, Integer.MAX_VALUE, 5);
+      assertEquals(0, past.items().size());
+      assertNull(past.next());
+    }
+    assertEquals(0, service.getPage("even", null, Integer.MAX_VALUE, 5).items().size());
+  }
+
+  @Test
+  void short_pages_keep_a_cursor_until_the_last_id() throws Exception {
+    newRepoAndService("products_short_pages.db");
+
+    for (int i = 0; i < 6; i++)
+      assertTrue(repo.insertProduct(p("Item " + i, "Tools", i, "USD")));
+
+    // Deleted from the table between the index read and the product reads, as a
+    // concurrent writer would: the category page comes out short but goes on
+    @SuppressWarnings("unchecked")
+    var db = (store.online.db.IntKeyDBTableMap<Product>) store.online.db.TableRegistry.shared().openTables()
+        .get(dbFile.toAbsolutePath());
+    db.remove(1);
+    Page<Product> first = service.getPage("tools", null, -1, 2);
+    assertEquals(1, first.items().size());
+    assertEquals(0, first.items().first().id);
+    assertEquals(1, first.next());
+    assertEquals(java.util.List.of(0, 2, 3, 4, 5),
+        pageThrough((after, limit) -> service.getPage("tools", null, after, limit), 2));
+
+    // A long run of deleted ids is examined over several pages, not in one go
+    List<Product> more = new store.online.utils.list.ArrayList<>();
+    List<Integer> gone = new store.online.utils.list.ArrayList<>();
+    for (int i = 0; i < 10_000; i++)
+      more.add(p("Bulk " + i, "Bulk", i, "USD"));
+    for (boolean ok : repo.insertProducts(more))
+      assertTrue(ok);
+    for (int id = 6; id < 6 + 9_990; id++)
+      gone.add(id);
+    for (boolean ok : repo.deleteProducts(gone))
+      assertTrue(ok);
+    Page<Product> gap = service.getPage(null, null, 5, 5);
+    assertTrue(gap.items().isEmpty());
+    assertNotNull(gap.next());
+    assertTrue(gap.next() < 6 + 9_990);
+    java.util.List<Integer> ids = pageThrough((after, limit) -> service.getPage(null, null, after, limit), 5);
+    assertEquals(15, ids.size());
+    assertEquals(9_996, ids.get(5));
+    assertEquals(10_005, ids.get(14));
+
+    Page<Product> scan = repo.scanByNamePage("bulk", 5, Integer.MAX_VALUE);
+    assertTrue(scan.items().isEmpty());
+    assertNotNull(scan.next());
+  }
+
+  @Test
+  void forEachProduct_streams_every_match_across_pages() throws Exception {
+    newRepoAndService("products_stream.db");
+
+    for (int i = 0; i < 300; i++)
+      assertTrue(repo.insertProduct(p("Item " + i, i % 3 == 0 ? "Fizz" : "Other", i, "USD")));
+
+    java.util.List<Integer> all = new java.util.ArrayList<>();
+    service.forEachProduct(null, null, p -> all.add(p.id));
+    assertEquals(300, all.size());
+    for (int i = 0; i < 300; i++)
+      assertEquals(i, all.get(i));
+
+    int[] fizz = { 0 };
+    service.forEachProduct("fizz", null, p -> {
+      assertEquals(0, p.id % 3);
+      fizz[0]++;
+    });
+    assertEquals(100, fizz[0]);
+
+    // Names "Item 1", "Item 10".."Item 19", "Item 100".."Item 199", ... in id order
+    java.util.List<Integer> ones = new java.util.ArrayList<>();
+    service.forEachProduct(null, "M 1", p -> ones.add(p.id));
+    assertEquals(111, ones.size());
+    assertEquals(1, ones.get(0));
+    assertEquals(199, ones.get(ones.size() - 1));
+    for (int i = 1; i < ones.size(); i++)
+      assertTrue(ones.get(i - 1) < ones.get(i));
+  }
+
+  @Test
+  void batch_writes_report_per_item_results_and_keep_indexes() throws Exception {
+    newRepoAndService("products_batch.db");
+
+    List<Product> batch = new store.online.utils.list.ArrayList<>();
+    for (int i = 0; i < 50; i++)
+      batch.add(p("Bulk " + i, i % 2 == 0 ? "Even" : "Odd", i, "USD"));
+    boolean[] inserted = service.insertAll(batch);
+    assertEquals(50, inserted.length);
+    for (int i = 0; i < 50; i++) {
+      assertTrue(inserted[i]);
+      assertEquals(i, batch.get(i).id);
+    }
+    assertEquals(25, count(service.getProductsByCategory("even")));
+
+    Product moved = repo.getProduct(1).orElseThrow();
+    moved.category = "Even";
+    moved.name = "Renamed";
+    Product missing = p("Ghost", "Even", 1, "USD");
+    missing.id = 999;
+    List<Product> updates = new store.online.utils.list.ArrayList<>();
+    updates.add(moved);
+    updates.add(missing);
+    boolean[] updated = service.updateAll(updates);
+    assertTrue(updated[0]);
+    assertFalse(updated[1]);
+    assertEquals("Renamed", repo.getProduct(1).orElseThrow().name);
+    assertEquals(26, count(service.getProductsByCategory("even")));
+    assertEquals(1, count(service.searchByName("renamed")));
+
+    List<Integer> ids = new store.online.utils.list.ArrayList<>();
+    ids.add(0);
+    ids.add(0);
+    ids.add(2);
+    boolean[] deleted = service.deleteAll(ids);
+    assertTrue(deleted[0]);
+    assertFalse(deleted[1]);
+    assertTrue(deleted[2]);
+    assertTrue(repo.getProduct(0).isEmpty());
+    assertEquals(24, count(service.getProductsByCategory("even")));
+    assertEquals(48, count(repo.getProducts()));
+  }
 }
@@ -121,6 +121,26 @@ class UserRepositoryTest {
     assertFalse(repo.deleteUser("dave"), "deleting again should return false");
   }
 
+  @Test
+  void createUser_rejects_usernames_wider_than_the_key_column() throws Exception {
+    newRepo("users_repo_width.db");
+
+    String tooLong = "x".repeat(40);
+    for (int i = 0; i < 3; i++)
+      assertThrows(IllegalArgumentException.class, () -> repo.createUser(user(tooLong, 1)));
+    assertTrue(repo.getUser(tooLong).isEmpty());
+    assertFalse(repo.deleteUser(tooLong));
+
+    // Width is in UTF-8 bytes: 16 two-byte chars fit, 17 do not
+    assertTrue(repo.createUser(user("é".repeat(16), 2)));
+    assertEquals(2, repo.getUser("é".repeat(16)).orElseThrow().passwordHash);
+    assertThrows(IllegalArgumentException.class, () -> repo.createUser(user("é".repeat(17), 3)));
+
+    String exact = "y".repeat(32);
+    assertTrue(repo.createUser(user(exact, 4)));
+    assertFalse(repo.createUser(user(exact, 5)), "a full-width name is found again");
+  }
+
   @Test
   void getUser_null_or_blank_returns_empty() throws Exception {
     newRepo("users_repo_blank.db");